@@ -1,22 +1,27 @@
 package fichier;
 
+import fr.yuka_projet.OffDatasetGenerator;
+
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lit et affiche un fichier au format de l'export Open Food Facts, ligne par ligne
+ * <p>Usage : {@code TestLireFichierAvecJavaIo [fichier.csv]}. Sans argument, un petit fichier est généré
+ * par {@link OffDatasetGenerator} dans le dossier temporaire.</p>
+ */
 public class TestLireFichierAvecJavaIo {
     public static void main(String[] args) {
         try {
-            FileReader fileReader = new FileReader(new File("C:/Temp/saisieClavier.txt"));
-            BufferedReader reader = new BufferedReader(fileReader);
-            String line = null;
-            while ((line= reader.readLine())!=null){
+            File fichier = args.length > 0 ? new File(args[0]) : OffDatasetGenerator.generateTemporaire(100).toFile();
+            try (BufferedReader reader = new BufferedReader(new FileReader(fichier, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
 
-                System.out.println(line);
+                    System.out.println(line);
 
+                }
             }
-
-            reader.close();
-
-            fileReader.close();
-
         }
         catch (IOException e){
             throw new RuntimeException(e);
@@ -26,4 +31,3 @@ public class TestLireFichierAvecJavaIo {
     }
 
 }
-
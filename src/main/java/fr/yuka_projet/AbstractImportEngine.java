@@ -0,0 +1,321 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.PersistenceUnitUtil;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Logique commune aux moteurs d'import : résolution des entités de référence, import différentiel et écriture par lots
+ * <p>Les catégories, marques, ingrédients et allergènes déjà rencontrés sont gardés en cache par nom canonique.
+ * Une entité de référence créée par l'import prend pour nom affiché l'écriture de sa première occurrence.
+ * Les produits sont insérés par lots de {@code batchSize} : à chaque lot, les insertions JDBC en attente sont exécutées
+ * puis les associations sont écrites par l'{@link AssociationBulkWriter}.</p>
+ * <p>Avec un {@link ReferenceDictionary}, les identifiants des entités de référence sont lus dans les dictionnaires
+ * et aucune entité de référence n'est créée.</p>
+ * <p>Le masque des allergènes de chaque produit ({@link AllergenMask}) est calculé à partir des mêmes allergènes
+ * que ses lignes de all_pro. Un nouvel allergène reçoit sa position de bit à sa création : la plus grande position attribuée
+ * est lue en base au premier nouvel allergène de la transaction, puis tenue à jour par le moteur.</p>
+ * <p>Les compteurs de {@link AgregatCatalogue} sont tenus à jour au fil de l'import : leurs variations sont accumulées
+ * en mémoire et ajoutées dans la transaction de chaque lot, juste avant sa validation, à la partie des compteurs du moteur.</p>
+ * <p>Les statistiques Hibernate de la fabrique de sessions sont activées pour compter les instructions SQL préparées par l'import.</p>
+ */
+abstract class AbstractImportEngine implements ImportEngine {
+
+    /**
+     * Taille des lots par défaut, alignée sur {@code hibernate.jdbc.batch_size}
+     */
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    protected final AssociationBulkWriter associations = new AssociationBulkWriter();
+    private final AggregateDeltaWriter agregats = new AggregateDeltaWriter(AssociationBulkWriter.DEFAULT_ROWS_PER_STATEMENT);
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final Statistics statistics;
+    private final long instructionsAuDebut;
+    private int batchSize;
+    private ReferenceDictionary dictionnaire;
+    private long flushNanos;
+    // Plus grande position de bit attribuée, lue au premier nouvel allergène de la transaction
+    private Integer plusGrandBit;
+    private boolean plusGrandBitLu;
+    private final Map<String, Categorie> categories = new HashMap<>();
+    private final Map<String, Marque> marques = new HashMap<>();
+    private final Map<String, Ingredient> ingredients = new HashMap<>();
+    private final Map<String, Allergene> allergenes = new HashMap<>();
+    // Produits insérés dans le lot courant, pas encore envoyés à la base
+    private final Map<CleProduit, Long> produitsEnAttente = new HashMap<>();
+
+    AbstractImportEngine(SessionFactory sessionFactory, int batchSize) {
+        this.persistenceUnitUtil = sessionFactory.getPersistenceUnitUtil();
+        this.statistics = sessionFactory.getStatistics();
+        this.batchSize = batchSize;
+        statistics.setStatisticsEnabled(true);
+        instructionsAuDebut = statistics.getPrepareStatementCount();
+    }
+
+    @Override
+    public boolean write(LigneProduit ligne) {
+        Categorie categorie = resolve(categories, Categorie.class, ligne.categorie(), n -> new Categorie(n.affiche(), n.canonique()));
+        Marque marque = resolve(marques, Marque.class, ligne.marque(), n -> new Marque(n.affiche(), n.canonique()));
+        List<Long> ingredientIds = new ArrayList<>();
+        for (NameNormalizer.Nom nom : ligne.ingredients()) {
+            ingredientIds.add(dictionnaire != null
+                    ? known(Ingredient.class, nom.canonique())
+                    : id(resolve(ingredients, Ingredient.class, nom, n -> new Ingredient(n.affiche(), n.canonique()))));
+        }
+        List<Long> allergeneIds = new ArrayList<>();
+        long masque = 0;
+        for (NameNormalizer.Nom nom : ligne.allergenes()) {
+            if (dictionnaire != null) {
+                allergeneIds.add(known(Allergene.class, nom.canonique()));
+                masque = AllergenMask.ajouter(masque, dictionnaire.bitAllergene(nom.canonique()));
+            } else {
+                Allergene allergene = resolve(allergenes, Allergene.class, nom, n -> new Allergene(n.affiche(), n.canonique(),
+                        attribuerBit(n.canonique())));
+                allergeneIds.add(id(allergene));
+                masque = AllergenMask.ajouter(masque, allergene.getBit());
+            }
+        }
+
+        CleProduit cle = new CleProduit(ligne.nom(), categorie.getId(), marque.getId());
+        if (produitsEnAttente.containsKey(cle)) {
+            // Le même produit apparaît deux fois dans le lot : le lot est d'abord envoyé pour pouvoir le mettre à jour
+            flush();
+        }
+        ProduitExistant existant = findProduit(cle);
+        if (existant != null) {
+            // Import différentiel : met à jour le produit si son score ou ses allergènes ont changé et remplace ses associations
+            if (existant.scoreNutritionnel() != ligne.scoreNutritionnel() || existant.allergenesMasque() != masque) {
+                updateProduit(existant.id(), ligne.scoreNutritionnel(), masque);
+            }
+            if (existant.scoreNutritionnel() != ligne.scoreNutritionnel()) {
+                agregats.ajouter(AgregatCatalogue.Dimension.CATEGORIE_SCORE, cle.categorieId(), existant.scoreNutritionnel(), -1);
+                agregats.ajouter(AgregatCatalogue.Dimension.CATEGORIE_SCORE, cle.categorieId(), ligne.scoreNutritionnel(), 1);
+            }
+            associations.replace(existant.id(), ingredientIds, allergeneIds);
+        } else {
+            Produit produit = new Produit(ligne.nom(), ligne.scoreNutritionnel(), marque, categorie);
+            produit.setAllergenesMasque(masque);
+            long id = insertProduit(produit);
+            produitsEnAttente.put(cle, id);
+            associations.add(id, ingredientIds, allergeneIds);
+            agregats.ajouter(AgregatCatalogue.Dimension.CATEGORIE_SCORE, cle.categorieId(), ligne.scoreNutritionnel(), 1);
+            agregats.ajouter(AgregatCatalogue.Dimension.MARQUE, cle.marqueId(), null, 1);
+        }
+        if (produitsEnAttente.size() >= batchSize || associations.getPendingRows() >= batchSize * 20) {
+            flush();
+        }
+        return existant == null;
+    }
+
+    @Override
+    public void commit() {
+        flush();
+        try {
+            // Dernière écriture de la transaction : les compteurs, partagés entre imports, restent verrouillés le moins longtemps possible
+            doWork(agregats::flush);
+        } catch (RuntimeException e) {
+            throw new BatchFailedException(e);
+        }
+        commitTransaction();
+        plusGrandBitLu = false;
+    }
+
+    @Override
+    public void rollback() {
+        associations.clear();
+        agregats.clear();
+        produitsEnAttente.clear();
+        // Les entités de référence créées dans la transaction annulée n'existent plus
+        categories.clear();
+        marques.clear();
+        ingredients.clear();
+        allergenes.clear();
+        plusGrandBitLu = false;
+        rollbackTransaction();
+    }
+
+    @Override
+    public void setReferences(ReferenceDictionary dictionnaire) {
+        this.dictionnaire = dictionnaire;
+        categories.clear();
+        marques.clear();
+    }
+
+    @Override
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("La taille des lots doit être positive : " + batchSize);
+        }
+        this.batchSize = batchSize;
+        applyJdbcBatchSize(batchSize);
+    }
+
+    @Override
+    public void setPartieCompteurs(int partie) {
+        agregats.setPartie(partie);
+    }
+
+    @Override
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    @Override
+    public void report(ImportMetrics metrics) {
+        metrics.ajouterAssociations(associations.getRowCount(), associations.getStatementCount());
+        metrics.setInstructionsHibernate(statistics.getPrepareStatementCount() - instructionsAuDebut);
+    }
+
+    /**
+     * Envoie le lot courant : insertions des produits puis lignes d'association
+     */
+    protected void flush() {
+        long debut = System.nanoTime();
+        try {
+            flushProduits();
+            doWork(connection -> {
+                agregats.compterAllergenes(connection, associations);
+                associations.flush(connection);
+            });
+        } catch (RuntimeException e) {
+            throw new BatchFailedException(e);
+        } finally {
+            flushNanos += System.nanoTime() - debut;
+        }
+        produitsEnAttente.clear();
+        afterFlush();
+    }
+
+    // Attribue sa position de bit à un nouvel allergène, à la suite des positions déjà attribuées
+    private Integer attribuerBit(String nomCanonique) {
+        if (!plusGrandBitLu) {
+            plusGrandBit = plusGrandBitAllergene();
+            plusGrandBitLu = true;
+        }
+        Integer bit = AllergenMask.attribuer(nomCanonique, plusGrandBit);
+        if (bit != null && (plusGrandBit == null || bit > plusGrandBit)) {
+            plusGrandBit = bit;
+        }
+        return bit;
+    }
+
+    // Recherche une entité de référence dans le cache, puis en base, et la crée si elle n'existe pas encore
+    private <T> T resolve(Map<String, T> cache, Class<T> type, NameNormalizer.Nom nom, Function<NameNormalizer.Nom, T> creation) {
+        T entite = cache.get(nom.canonique());
+        if (entite == null) {
+            if (dictionnaire != null) {
+                entite = reference(type, known(type, nom.canonique()));
+            } else {
+                entite = findReference(type, nom.canonique());
+                if (entite == null) {
+                    entite = creation.apply(nom);
+                    insertReference(entite);
+                }
+            }
+            cache.put(nom.canonique(), entite);
+        }
+        return entite;
+    }
+
+    // Identifiant lu dans les dictionnaires de la première passe
+    private long known(Class<?> type, String nom) {
+        Long id = dictionnaire.id(type, nom);
+        if (id == null) {
+            throw new IllegalArgumentException(type.getSimpleName() + " absent(e) du dictionnaire : " + nom);
+        }
+        return id;
+    }
+
+    private long id(Object entite) {
+        return (Long) persistenceUnitUtil.getIdentifier(entite);
+    }
+
+    /**
+     * Recherche une entité de référence par la forme canonique de son nom
+     * @return l'entité, ou {@code null} si elle n'existe pas
+     */
+    protected abstract <T> T findReference(Class<T> type, String nomCanonique);
+
+    /**
+     * Permet d'obtenir une entité de référence existante à partir de son identifiant, sans forcément la charger
+     */
+    protected abstract <T> T reference(Class<T> type, long id);
+
+    /**
+     * Insère immédiatement une entité de référence, son identifiant doit être connu au retour
+     */
+    protected abstract void insertReference(Object entite);
+
+    /**
+     * Permet d'obtenir la plus grande position de bit déjà attribuée à un allergène
+     * <p>Appelée au plus une fois par transaction, au premier allergène créé.</p>
+     * @return la position, ou {@code null} si aucun allergène n'en a
+     */
+    protected abstract Integer plusGrandBitAllergene();
+
+    /**
+     * Recherche en base un produit par sa clé naturelle
+     * @return l'identifiant, le score nutritionnel et le masque des allergènes actuels du produit, ou {@code null} s'il n'existe pas
+     */
+    protected abstract ProduitExistant findProduit(CleProduit cle);
+
+    /**
+     * Insère un produit, éventuellement en différé dans le lot JDBC courant
+     * @return l'identifiant attribué au produit
+     */
+    protected abstract long insertProduit(Produit produit);
+
+    /**
+     * Met à jour le score nutritionnel et le masque des allergènes d'un produit existant
+     */
+    protected abstract void updateProduit(long id, NutritionGradeFr scoreNutritionnel, long allergenesMasque);
+
+    /**
+     * Exécute les insertions de produits en attente
+     */
+    protected abstract void flushProduits();
+
+    /**
+     * Exécute un traitement JDBC sur la connexion de la transaction courante
+     */
+    protected abstract void doWork(Work work);
+
+    /**
+     * Applique la taille des lots JDBC à la session du moteur
+     */
+    protected abstract void applyJdbcBatchSize(int batchSize);
+
+    /**
+     * Valide la transaction courante
+     */
+    protected abstract void commitTransaction();
+
+    /**
+     * Annule la transaction courante si elle est active
+     */
+    protected abstract void rollbackTransaction();
+
+    /**
+     * Appelée après l'envoi de chaque lot
+     */
+    protected void afterFlush() {
+    }
+
+    /**
+     * Clé naturelle d'un produit : son nom, sa catégorie et sa marque
+     */
+    protected record CleProduit(String nom, long categorieId, long marqueId) {
+    }
+
+    /**
+     * Produit déjà présent en base, avec son score et son masque tels que vus par la transaction courante
+     */
+    protected record ProduitExistant(long id, NutritionGradeFr scoreNutritionnel, long allergenesMasque) {
+    }
+}
@@ -0,0 +1,221 @@
+package fr.yuka_projet;
+
+import java.sql.SQLException;
+
+/**
+ * Ajuste pendant l'import la taille des lots JDBC et le nombre de lignes par transaction
+ * <p>Après chaque transaction validée, le contrôleur compare le débit (lignes par seconde) à celui de la transaction
+ * précédente et modifie à tour de rôle l'un des deux paramètres, d'un facteur {@value #FACTEUR} :
+ * tant que le débit progresse il continue dans le même sens, sinon il repart dans l'autre sens.
+ * Les deux tailles restent dans les bornes configurées.</p>
+ * <p>Il recule franchement (division par deux) sur un pic de latence, quand une durée dépasse {@value #SEUIL_PIC} fois
+ * sa moyenne récente : la durée de validation pour le nombre de lignes par transaction, le temps d'envoi des lots
+ * rapporté à une ligne pour la taille des lots JDBC. Les deux tailles reculent quand une attente de verrou
+ * fait échouer une transaction.</p>
+ * <p>Chaque décision est retournée et reportée dans les {@link ImportMetrics}.</p>
+ */
+public class AdaptiveBatchController {
+
+    static final double FACTEUR = 1.25;
+    static final double SEUIL_PIC = 3.0;
+    // Variation de débit en dessous de laquelle un changement n'est pas considéré comme une dégradation
+    private static final double TOLERANCE = 0.02;
+    // Poids de la dernière mesure dans les moyennes glissantes des durées d'envoi et de validation
+    private static final double LISSAGE = 0.2;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int minChunkSize;
+    private final int maxChunkSize;
+
+    private int batchSize;
+    private int chunkSize;
+    private int directionBatch = 1;
+    private int directionChunk = 1;
+    private boolean ajusterBatch;
+    private Boolean dernierAjustementBatch;
+    private double dernierDebit;
+    private double moyenneValidation;
+    private double moyenneEnvoiParLigne;
+    private long transactions;
+
+    /**
+     * Constructeur avec les bornes par défaut : lots JDBC de 50 à 5 000 produits, transactions de 1 000 à 100 000 lignes
+     */
+    public AdaptiveBatchController() {
+        this(50, 5_000, AbstractImportEngine.DEFAULT_BATCH_SIZE, 1_000, 100_000, CsvImporterFood.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructeur de la classe AdaptiveBatchController
+     * @param minBatchSize la taille minimale des lots JDBC
+     * @param maxBatchSize la taille maximale des lots JDBC
+     * @param batchSize la taille initiale des lots JDBC
+     * @param minChunkSize le nombre minimal de lignes par transaction
+     * @param maxChunkSize le nombre maximal de lignes par transaction
+     * @param chunkSize le nombre initial de lignes par transaction
+     */
+    public AdaptiveBatchController(int minBatchSize, int maxBatchSize, int batchSize,
+                                   int minChunkSize, int maxChunkSize, int chunkSize) {
+        if (minBatchSize < 1 || minBatchSize > maxBatchSize || minChunkSize < 1 || minChunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("Bornes invalides : lots JDBC " + minBatchSize + ".." + maxBatchSize
+                    + ", transactions " + minChunkSize + ".." + maxChunkSize);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.batchSize = borner(batchSize, minBatchSize, maxBatchSize);
+        this.chunkSize = borner(chunkSize, minChunkSize, maxChunkSize);
+    }
+
+    /**
+     * Permet d'obtenir la taille des lots JDBC à utiliser
+     * @return le nombre de produits par lot JDBC
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lignes par transaction à utiliser
+     * @return le nombre de lignes par transaction
+     */
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Prend en compte les mesures d'une transaction validée
+     * @param lignes le nombre de lignes lues dans la transaction
+     * @param dureeNanos la durée totale de la transaction, lecture comprise
+     * @param flushNanos le temps passé à envoyer les lots à la base
+     * @param validationNanos le temps passé à valider la transaction
+     * @return la décision prise
+     */
+    public synchronized Decision onCommit(long lignes, long dureeNanos, long flushNanos, long validationNanos) {
+        transactions++;
+        double debit = dureeNanos == 0 ? 0 : lignes * 1e9 / dureeNanos;
+        // Le temps d'envoi est rapporté à une ligne : il reste comparable quand la taille des transactions change
+        double envoiParLigne = lignes == 0 ? 0 : (double) flushNanos / lignes;
+        String raison;
+        if (moyenneEnvoiParLigne > 0 && envoiParLigne > SEUIL_PIC * moyenneEnvoiParLigne) {
+            // Pic de latence d'envoi : la base peine à absorber les lots, ils sont raccourcis
+            batchSize = borner(batchSize / 2, minBatchSize, maxBatchSize);
+            directionBatch = 1;
+            dernierAjustementBatch = null;
+            raison = String.format("pic de latence d'envoi (%.1f µs par ligne pour une moyenne de %.1f µs)",
+                    envoiParLigne / 1e3, moyenneEnvoiParLigne / 1e3);
+        } else if (moyenneValidation > 0 && validationNanos > SEUIL_PIC * moyenneValidation) {
+            // Pic de latence : la base est chargée, les transactions sont raccourcies
+            chunkSize = borner(chunkSize / 2, minChunkSize, maxChunkSize);
+            // Les transactions seront ensuite rallongées progressivement tant que le débit progresse
+            directionChunk = 1;
+            dernierAjustementBatch = null;
+            raison = String.format("pic de latence de validation (%d ms pour une moyenne de %.0f ms)",
+                    validationNanos / 1_000_000, moyenneValidation / 1e6);
+        } else {
+            if (dernierAjustementBatch != null && debit < dernierDebit * (1 - TOLERANCE)) {
+                // Le dernier changement a dégradé le débit : ce paramètre repart dans l'autre sens
+                if (dernierAjustementBatch) {
+                    directionBatch = -directionBatch;
+                } else {
+                    directionChunk = -directionChunk;
+                }
+            }
+            if (ajusterBatch) {
+                int precedent = batchSize;
+                batchSize = ajuster(batchSize, directionBatch, minBatchSize, maxBatchSize);
+                if (batchSize == precedent) {
+                    directionBatch = -directionBatch;
+                }
+                raison = "lots JDBC " + precedent + " -> " + batchSize;
+            } else {
+                int precedent = chunkSize;
+                chunkSize = ajuster(chunkSize, directionChunk, minChunkSize, maxChunkSize);
+                if (chunkSize == precedent) {
+                    directionChunk = -directionChunk;
+                }
+                raison = "transactions " + precedent + " -> " + chunkSize + " lignes";
+            }
+            dernierAjustementBatch = ajusterBatch;
+            ajusterBatch = !ajusterBatch;
+        }
+        moyenneValidation = moyenneValidation == 0
+                ? validationNanos
+                : LISSAGE * validationNanos + (1 - LISSAGE) * moyenneValidation;
+        moyenneEnvoiParLigne = moyenneEnvoiParLigne == 0
+                ? envoiParLigne
+                : LISSAGE * envoiParLigne + (1 - LISSAGE) * moyenneEnvoiParLigne;
+        dernierDebit = debit;
+        return new Decision(transactions, batchSize, chunkSize, debit, flushNanos / 1_000_000, validationNanos / 1_000_000, raison);
+    }
+
+    /**
+     * Prend en compte l'échec d'une transaction sur une attente de verrou : les deux tailles sont divisées par deux
+     * @return la décision prise
+     */
+    public synchronized Decision onLockWait() {
+        batchSize = borner(batchSize / 2, minBatchSize, maxBatchSize);
+        chunkSize = borner(chunkSize / 2, minChunkSize, maxChunkSize);
+        directionBatch = 1;
+        directionChunk = 1;
+        dernierAjustementBatch = null;
+        return new Decision(transactions, batchSize, chunkSize, 0, 0, 0, "attente de verrou, transaction rejouée");
+    }
+
+    /**
+     * Indique si une erreur provient d'une attente de verrou ou d'un interblocage, après lequel la transaction peut être rejouée
+     * @param erreur l'erreur levée pendant la transaction
+     * <p>Les autres erreurs transitoires (connexion perdue, délai d'instruction dépassé) ne sont pas concernées :
+     * réduire les lots n'y change rien.</p>
+     * @return {@code true} pour une attente de verrou expirée ou un interblocage
+     */
+    public static boolean isLockWait(Throwable erreur) {
+        for (Throwable cause = erreur; cause != null; cause = cause.getCause()) {
+            // LockAcquisitionException couvre aussi org.hibernate.exception.LockTimeoutException
+            if (cause instanceof jakarta.persistence.LockTimeoutException
+                    || cause instanceof jakarta.persistence.PessimisticLockException
+                    || cause instanceof org.hibernate.exception.LockAcquisitionException
+                    || cause instanceof org.hibernate.PessimisticLockException) {
+                return true;
+            }
+            // Codes MySQL : 1205 attente de verrou expirée, 1213 interblocage
+            if (cause instanceof SQLException sql && (sql.getErrorCode() == 1205 || sql.getErrorCode() == 1213)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int ajuster(int taille, int direction, int min, int max) {
+        return borner((int) Math.round(direction > 0 ? taille * FACTEUR : taille / FACTEUR), min, max);
+    }
+
+    private static int borner(int taille, int min, int max) {
+        return Math.max(min, Math.min(max, taille));
+    }
+
+    /**
+     * Une décision du contrôleur
+     * @param transaction le numéro de la transaction mesurée
+     * @param batchSize la taille des lots JDBC retenue
+     * @param chunkSize le nombre de lignes par transaction retenu
+     * @param debit le débit mesuré, en lignes par seconde
+     * @param flushMs le temps passé à envoyer les lots de la transaction
+     * @param validationMs le temps de validation de la transaction
+     * @param raison la raison du changement
+     */
+    public record Decision(long transaction, int batchSize, int chunkSize, double debit,
+                           long flushMs, long validationMs, String raison) {
+
+        @Override
+        public String toString() {
+            if (debit == 0) {
+                return "transaction " + transaction + " -> " + raison;
+            }
+            return String.format("transaction %d : %.0f lignes/s, envoi %d ms, validation %d ms -> %s",
+                    transaction, debit, flushMs, validationMs, raison);
+        }
+    }
+}
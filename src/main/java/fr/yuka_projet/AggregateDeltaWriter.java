@@ -0,0 +1,118 @@
+package fr.yuka_projet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Variations des compteurs de {@link AgregatCatalogue} accumulées pendant une transaction d'import
+ * <p>Les moteurs ajoutent +1 ou -1 par produit inséré, par changement de score et par allergène,
+ * puis {@link #flush(Connection)} ajoute ces variations aux compteurs juste avant la validation,
+ * dans la transaction du lot : les compteurs restent cohérents avec les produits, y compris après une reprise.</p>
+ * <p>Les variations sont écrites dans la partie du moteur (voir {@link #setPartie(int)}) : les moteurs parallèles d'un même import
+ * n'écrivent pas les mêmes lignes. Entre imports distincts, les lignes sont mises à jour dans un ordre fixe
+ * pour qu'ils ne s'attendent pas mutuellement.</p>
+ */
+class AggregateDeltaWriter {
+
+    // Ordre de verrouillage des compteurs
+    private static final Comparator<AgregatCatalogue.Cle> ORDRE = Comparator
+            .comparing(AgregatCatalogue.Cle::getDimension)
+            .thenComparingLong(AgregatCatalogue.Cle::getReferenceId)
+            .thenComparing(AgregatCatalogue.Cle::getScore)
+            .thenComparingInt(AgregatCatalogue.Cle::getPartie);
+
+    private final int rowsPerStatement;
+    private final Map<AgregatCatalogue.Cle, LongAdder> variations = new ConcurrentHashMap<>();
+    private int partie;
+
+    AggregateDeltaWriter(int rowsPerStatement) {
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    // Choisit la partie des compteurs écrite par ce moteur, avant toute variation
+    void setPartie(int partie) {
+        if (!variations.isEmpty()) {
+            throw new IllegalStateException("Variations en attente dans la partie " + this.partie);
+        }
+        this.partie = partie;
+    }
+
+    // Ajoute une variation à un compteur
+    void ajouter(AgregatCatalogue.Dimension dimension, long referenceId, NutritionGradeFr score, long variation) {
+        variations.computeIfAbsent(new AgregatCatalogue.Cle(dimension, referenceId, score, partie), cle -> new LongAdder())
+                .add(variation);
+    }
+
+    // Compte les associations écrites dans le lot : les allergènes des produits remplacés sont retirés
+    // avant la suppression de leurs anciennes associations, les nouvelles sont ajoutées
+    void compterAllergenes(Connection connection, AssociationBulkWriter associations) throws SQLException {
+        retirerAllergenes(connection, associations.remplaces());
+        for (long[] allergeneIds : associations.allergenes().values()) {
+            for (long allergeneId : allergeneIds) {
+                ajouter(AgregatCatalogue.Dimension.ALLERGENE, allergeneId, null, 1);
+            }
+        }
+    }
+
+    private void retirerAllergenes(Connection connection, Collection<Long> produitIds) throws SQLException {
+        List<Long> ids = new ArrayList<>(produitIds);
+        for (int debut = 0; debut < ids.size(); debut += rowsPerStatement) {
+            List<Long> lot = ids.subList(debut, Math.min(debut + rowsPerStatement, ids.size()));
+            String sql = "SELECT allergen_id, COUNT(*) FROM all_pro WHERE produit_id IN ("
+                    + "?,".repeat(lot.size() - 1) + "?) GROUP BY allergen_id";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < lot.size(); i++) {
+                    statement.setLong(i + 1, lot.get(i));
+                }
+                try (ResultSet resultats = statement.executeQuery()) {
+                    while (resultats.next()) {
+                        ajouter(AgregatCatalogue.Dimension.ALLERGENE, resultats.getLong(1), null, -resultats.getLong(2));
+                    }
+                }
+            }
+        }
+    }
+
+    // Ajoute les variations non nulles aux compteurs, un compteur absent est créé
+    void flush(Connection connection) throws SQLException {
+        List<Map.Entry<AgregatCatalogue.Cle, Long>> lignes = new ArrayList<>();
+        variations.forEach((cle, variation) -> {
+            long somme = variation.sum();
+            if (somme != 0) {
+                lignes.add(Map.entry(cle, somme));
+            }
+        });
+        lignes.sort(Map.Entry.comparingByKey(ORDRE));
+        for (int debut = 0; debut < lignes.size(); debut += rowsPerStatement) {
+            List<Map.Entry<AgregatCatalogue.Cle, Long>> lot = lignes.subList(debut, Math.min(debut + rowsPerStatement, lignes.size()));
+            String sql = "INSERT INTO agregat_catalogue (dimension, reference_id, score, partie, nb) VALUES "
+                    + "(?,?,?,?,?),".repeat(lot.size() - 1) + "(?,?,?,?,?) ON DUPLICATE KEY UPDATE nb = nb + VALUES(nb)";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                int parametre = 1;
+                for (Map.Entry<AgregatCatalogue.Cle, Long> ligne : lot) {
+                    statement.setString(parametre++, ligne.getKey().getDimension().name());
+                    statement.setLong(parametre++, ligne.getKey().getReferenceId());
+                    statement.setString(parametre++, ligne.getKey().getScore());
+                    statement.setInt(parametre++, ligne.getKey().getPartie());
+                    statement.setLong(parametre++, ligne.getValue());
+                }
+                statement.executeUpdate();
+            }
+        }
+        variations.clear();
+    }
+
+    // Abandonne les variations de la transaction annulée
+    void clear() {
+        variations.clear();
+    }
+}
@@ -0,0 +1,160 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Représente un compteur de produits du catalogue, tenu à jour par l'import
+ * <p>Cette classe est annotée avec {@code @Entity} pour indiquer qu'il s'agit d'une entité JPA.</p>
+ * <p>Elle est également annotée avec {@code @Table(name="agregat_catalogue")} pour spécifier le nom de la table correspondante dans la base de données.</p>
+ * <p>Une ligne par catégorie et score nutritionnel, par marque et par allergène, et par partie : les tableaux de bord
+ * additionnent les quelques parties d'un compteur au lieu de regrouper toute la table produit. Voir {@link CatalogAggregates}.</p>
+ * <p>Chaque moteur parallèle d'un import écrit sa propre partie : deux moteurs ne mettent jamais à jour la même ligne
+ * et ne s'attendent pas l'un l'autre à la validation. La partie 0 est celle de l'import séquentiel et du recalcul.</p>
+ */
+@Entity
+@Table(name="agregat_catalogue")
+public class AgregatCatalogue {
+
+    /**
+     * La clé du compteur - la clé primaire composée
+     */
+    @EmbeddedId
+    private Cle cle;
+
+    /**
+     * Le nombre de produits
+     */
+    @Column(name="nb", nullable = false)
+    private long nb;
+
+    /**
+     * Un bean entité doit obligatoirement avoir un constructeur sans paramètre pour le jpa
+     */
+    public AgregatCatalogue() {
+
+    }
+
+    /**
+     * Permet d'obtenir la clé du compteur
+     * @return la clé
+     */
+    public Cle getCle() {
+        return cle;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de produits
+     * @return le nombre de produits
+     */
+    public long getNb() {
+        return nb;
+    }
+
+    /**
+     * Retourne une représentation sous forme de chaîne de caractères de l'objet AgregatCatalogue
+     * @return Une chaîne de caractères représentant l'objet AgregatCatalogue
+     */
+    @Override
+    public String toString() {
+        return "AgregatCatalogue{" +
+                "cle=" + cle +
+                ", nb=" + nb +
+                '}';
+    }
+
+    /**
+     * Les regroupements tenus à jour
+     */
+    public enum Dimension {
+        /**
+         * Produits par catégorie et score nutritionnel
+         */
+        CATEGORIE_SCORE,
+        /**
+         * Produits par marque
+         */
+        MARQUE,
+        /**
+         * Produits par allergène
+         */
+        ALLERGENE
+    }
+
+    /**
+     * Clé d'une partie de compteur : le regroupement, l'identifiant de la catégorie, de la marque ou de l'allergène,
+     * le score nutritionnel, vide hors du regroupement {@link Dimension#CATEGORIE_SCORE}, et la partie
+     */
+    @Embeddable
+    public static class Cle implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Enumerated(EnumType.STRING)
+        @Column(name="dimension", length = 16, nullable = false)
+        private Dimension dimension;
+
+        @Column(name="reference_id", nullable = false)
+        private long referenceId;
+
+        @Column(name="score", length = 1, nullable = false)
+        private String score;
+
+        @Column(name="partie", nullable = false)
+        private int partie;
+
+        /**
+         * Constructeur sans paramètre pour le jpa
+         */
+        public Cle() {
+
+        }
+
+        /**
+         * Constructeur de la classe Cle
+         * @param dimension le regroupement
+         * @param referenceId l'identifiant de la catégorie, de la marque ou de l'allergène
+         * @param score le score nutritionnel, ou {@code null} hors du regroupement par catégorie et score
+         * @param partie la partie du compteur, propre au moteur qui l'écrit
+         */
+        public Cle(Dimension dimension, long referenceId, NutritionGradeFr score, int partie) {
+            this.dimension = dimension;
+            this.referenceId = referenceId;
+            this.score = score == null ? "" : score.name();
+            this.partie = partie;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        public long getReferenceId() {
+            return referenceId;
+        }
+
+        public String getScore() {
+            return score;
+        }
+
+        public int getPartie() {
+            return partie;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Cle autre && dimension == autre.dimension && referenceId == autre.referenceId
+                    && score.equals(autre.score) && partie == autre.partie;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dimension, referenceId, score, partie);
+        }
+
+        @Override
+        public String toString() {
+            return dimension + ":" + referenceId + (score.isEmpty() ? "" : ":" + score) + "#" + partie;
+        }
+    }
+}
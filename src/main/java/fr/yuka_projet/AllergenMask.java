@@ -0,0 +1,141 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Masque de bits des allergènes d'un produit, pour filtrer sans jointure sur all_pro
+ * <p>Chaque {@link Allergene} reçoit à sa création une position de bit stable. Les 14 allergènes de la liste européenne
+ * ont des positions réservées, de 0 à {@value #BITS_RESERVES} - 1, quel que soit leur ordre d'apparition ;
+ * les autres noms prennent la position libre suivante, jusqu'à {@value #BIT_MAX}. Au-delà, l'allergène n'a pas de bit :
+ * il reste dans all_pro mais ne peut pas être filtré par le masque.</p>
+ * <p>Le masque du produit est écrit par l'import dans la colonne {@code produit.allergenes_masque}.
+ * Un produit est sans les allergènes d'un masque {@code m} si {@code (allergenes_masque & m) = 0}.
+ * Aucun index ne peut servir cette condition : le filtre parcourt la table produit, mais sans jointure sur all_pro.</p>
+ */
+public final class AllergenMask {
+
+    /**
+     * Nombre de positions réservées aux allergènes de la liste européenne
+     */
+    public static final int BITS_RESERVES = 14;
+
+    /**
+     * Dernière position de bit utilisable
+     */
+    public static final int BIT_MAX = Long.SIZE - 1;
+
+    // Position réservée de chaque allergène de la liste européenne, par nom canonique, variantes courantes comprises
+    private static final Map<String, Integer> RESERVES = new HashMap<>();
+
+    static {
+        reserver(0, "gluten", "céréales contenant du gluten");
+        reserver(1, "crustacés", "crustacé");
+        reserver(2, "œufs", "œuf");
+        reserver(3, "poissons", "poisson");
+        reserver(4, "arachides", "arachide", "cacahuètes");
+        reserver(5, "soja");
+        reserver(6, "lait");
+        reserver(7, "fruits à coque", "fruits à coques");
+        reserver(8, "céleri");
+        reserver(9, "moutarde");
+        reserver(10, "graines de sésame", "sésame");
+        reserver(11, "anhydride sulfureux et sulfites", "sulfites");
+        reserver(12, "lupin");
+        reserver(13, "mollusques", "mollusque");
+    }
+
+    private AllergenMask() {
+    }
+
+    private static void reserver(int bit, String... noms) {
+        for (String nom : noms) {
+            RESERVES.put(NameNormalizer.canonicalize(nom), bit);
+        }
+    }
+
+    /**
+     * Attribue une position de bit à un nouvel allergène
+     * @param nom le nom canonique de l'allergène
+     * @param plusGrandBit la plus grande position déjà attribuée, ou {@code null} si aucune
+     * @return la position réservée de l'allergène, sinon la position libre suivante, ou {@code null} s'il n'en reste plus
+     */
+    public static Integer attribuer(String nom, Integer plusGrandBit) {
+        Integer reserve = RESERVES.get(nom);
+        if (reserve != null) {
+            return reserve;
+        }
+        int suivant = Math.max(plusGrandBit == null ? 0 : plusGrandBit, BITS_RESERVES - 1) + 1;
+        return suivant <= BIT_MAX ? suivant : null;
+    }
+
+    /**
+     * Ajoute un allergène à un masque
+     * @param masque le masque
+     * @param bit la position de l'allergène, ou {@code null} s'il n'en a pas
+     * @return le masque complété
+     */
+    public static long ajouter(long masque, Integer bit) {
+        return bit == null ? masque : masque | 1L << bit;
+    }
+
+    /**
+     * Teste en mémoire si un produit est sans les allergènes d'un masque
+     * @param masqueProduit le masque des allergènes du produit
+     * @param masqueExclus le masque des allergènes à exclure
+     * @return {@code true} si le produit ne contient aucun de ces allergènes
+     */
+    public static boolean sans(long masqueProduit, long masqueExclus) {
+        return (masqueProduit & masqueExclus) == 0;
+    }
+
+    /**
+     * Calcule le masque d'une liste d'allergènes désignés par leur nom
+     * <p>Les noms sont ramenés à leur forme canonique, comparée à la colonne {@code nom_canonique}. Un nom absent de la base est ignoré : aucun produit ne le contient.</p>
+     * @param em l'EntityManager
+     * @param noms les noms des allergènes, tels que saisis
+     * @return le masque
+     * @throws IllegalArgumentException si un allergène connu n'a pas de position de bit
+     */
+    public static long masque(EntityManager em, Collection<String> noms) {
+        List<String> canoniques = new ArrayList<>();
+        for (String nom : noms) {
+            canoniques.add(NameNormalizer.canonicalize(nom));
+        }
+        if (canoniques.isEmpty()) {
+            return 0;
+        }
+        long masque = 0;
+        for (Object[] allergene : em.createQuery("SELECT a.nom, a.bit FROM Allergene a WHERE a.nomCanonique IN :noms", Object[].class)
+                .setParameter("noms", canoniques)
+                .getResultList()) {
+            if (allergene[1] == null) {
+                throw new IllegalArgumentException("Allergène sans position dans le masque, filtrer par all_pro : " + allergene[0]);
+            }
+            masque = ajouter(masque, (Integer) allergene[1]);
+        }
+        return masque;
+    }
+
+    /**
+     * Recherche les produits sans aucun des allergènes d'un masque, sur la seule colonne {@code allergenes_masque}
+     * <p>La table produit est parcourue en entier : à réserver aux traitements par lots, ou à combiner avec un autre critère indexé.</p>
+     * @param em l'EntityManager
+     * @param masqueExclus le masque des allergènes à exclure
+     * @return les identifiants des produits
+     */
+    public static List<Long> produitsSans(EntityManager em, long masqueExclus) {
+        List<Long> ids = new ArrayList<>();
+        List<?> resultats = em.createNativeQuery("SELECT id FROM produit WHERE (allergenes_masque & ?1) = 0")
+                .setParameter(1, masqueExclus)
+                .getResultList();
+        for (Object id : resultats) {
+            ids.add(((Number) id).longValue());
+        }
+        return ids;
+    }
+}
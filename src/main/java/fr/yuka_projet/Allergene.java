@@ -1,6 +1,7 @@
 package fr.yuka_projet;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,24 +30,34 @@ public class Allergene {
      * <ul>
      *     <li>La longueur maximale : 255</li>
      *     <li>Ne peut pas être nul</li>
-     *     <li>Doit être unique</li>
      * </ul>
      */
-    @Column(name="nom", length = 255, nullable = false, unique = true)
+    @Column(name="nom", length = 255, nullable = false)
     private String nom;
 
+    /**
+     * La forme canonique du nom de l'allergène, calculée par {@link NameNormalizer}
+     * <p>Clé de recherche de l'import : "Œufs" et "oeufs" désignent la même ligne, dont le champ {@code nom}
+     * garde l'écriture rencontrée en premier. C'est cette colonne qui est unique.</p>
+     */
+    @Column(name="nom_canonique", length = 255, nullable = false, unique = true)
+    private String nomCanonique;
+
+    /**
+     * La position de l'allergène dans le masque {@code Produit.allergenesMasque}
+     * <p>Attribuée une fois pour toutes à la création de l'allergène par {@link AllergenMask#attribuer},
+     * nulle si les 64 positions sont déjà prises.</p>
+     */
+    @Column(name="bit_masque")
+    private Integer bit;
+
     /**
      * Représente la liste des produits contenant cette allergène
-     * Elle est lié à une table d'association dans la base de donnée appelée "all_pro" qui contient les 2 clés étrangères :
-     * "id_all" pointant l'identifiant unique de l'allergène et "id_pro" pointant l'identifiant unique du produit
-     */
-    @ManyToMany
-    @JoinTable(name="all_pro",
-            joinColumns= @JoinColumn(name="allergen_id", referencedColumnName=
-                    "id"),
-            inverseJoinColumns= @JoinColumn(name="produit_id", referencedColumnName=
-                    "id")
-    )
+     * <p>Ce champ est le côté inverse de la relation {@code Produit.allergenes}, propriétaire de la table d'association "all_pro" :
+     * {@code mappedBy = "allergenes"} évite qu'Hibernate écrive ou supprime deux fois le même lien.</p>
+     */
+    @ManyToMany(mappedBy = "allergenes")
+    @BatchSize(size = 50)
     List<Produit> produits = new ArrayList<>();
 
     /**
@@ -58,10 +69,41 @@ public class Allergene {
 
     /**
      * Le constructeur de la classe Allergène
+     * <p>La forme canonique est calculée à partir du nom.</p>
      * @param nom le nom de l'allergène
      */
     public Allergene(String nom) {
+        this(nom, NameNormalizer.canonicalize(nom));
+    }
+
+    /**
+     * Constructeur avec le nom affiché et sa forme canonique, déjà calculée par l'import
+     * @param nom le nom affiché de l'allergène
+     * @param nomCanonique la forme canonique du nom
+     */
+    public Allergene(String nom, String nomCanonique) {
         this.nom = nom;
+        this.nomCanonique = nomCanonique;
+    }
+
+    /**
+     * Le constructeur de la classe Allergène avec sa position dans le masque des produits
+     * @param nom le nom de l'allergène
+     * @param bit la position de l'allergène, ou {@code null}
+     */
+    public Allergene(String nom, Integer bit) {
+        this(nom, NameNormalizer.canonicalize(nom), bit);
+    }
+
+    /**
+     * Le constructeur de la classe Allergène avec sa forme canonique et sa position dans le masque des produits
+     * @param nom le nom affiché de l'allergène
+     * @param nomCanonique la forme canonique du nom
+     * @param bit la position de l'allergène, ou {@code null}
+     */
+    public Allergene(String nom, String nomCanonique, Integer bit) {
+        this(nom, nomCanonique);
+        this.bit = bit;
     }
 
     /**
@@ -88,6 +130,22 @@ public class Allergene {
         this.nom = nom;
     }
 
+    /**
+     * Permet d'obtenir la forme canonique du nom de l'allergène
+     * @return la forme canonique, clé de recherche de l'import
+     */
+    public String getNomCanonique() {
+        return nomCanonique;
+    }
+
+    /**
+     * Permet d'obtenir la position de l'allergène dans le masque des produits
+     * @return la position, ou {@code null} si l'allergène n'en a pas
+     */
+    public Integer getBit() {
+        return bit;
+    }
+
     /**
      * Permet d'obtenir la liste des produits contenant cette allergène
      * @return Une liste de produits
@@ -105,7 +163,7 @@ public class Allergene {
         return "Allergene{" +
                 "id_allergene=" + id +
                 ", nom='" + nom + '\'' +
-                ", produits=" + produits +
+                ", bit=" + bit +
                 '}';
     }
 }
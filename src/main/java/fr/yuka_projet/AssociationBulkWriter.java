@@ -0,0 +1,206 @@
+package fr.yuka_projet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Écrit les lignes des tables d'association {@code pro_ing} et {@code all_pro} en dehors du mapping {@code @ManyToMany}
+ * <p>Les associations d'un produit sont accumulées puis écrites par {@link #flush(Connection)} sous forme
+ * d'instructions {@code INSERT} multi-lignes, au lieu d'une instruction par ligne.
+ * Les identifiants sont dédoublonnés par produit : un ingrédient répété dans la liste ne provoque plus de doublon de clé.</p>
+ * <p>Pour un produit déjà présent en base (import différentiel), {@link #replace} supprime ses anciennes associations
+ * avant d'écrire les nouvelles.</p>
+ */
+public class AssociationBulkWriter {
+
+    /**
+     * Nombre de lignes par instruction {@code INSERT} par défaut
+     */
+    public static final int DEFAULT_ROWS_PER_STATEMENT = 1000;
+
+    private final int rowsPerStatement;
+    private final Map<Long, long[]> ingredients = new LinkedHashMap<>();
+    private final Map<Long, long[]> allergenes = new LinkedHashMap<>();
+    private final Set<Long> remplaces = new LinkedHashSet<>();
+    private int pendingRows;
+    private long statementCount;
+    private long rowCount;
+
+    /**
+     * Constructeur avec le nombre de lignes par instruction par défaut
+     */
+    public AssociationBulkWriter() {
+        this(DEFAULT_ROWS_PER_STATEMENT);
+    }
+
+    /**
+     * Constructeur de la classe AssociationBulkWriter
+     * @param rowsPerStatement le nombre maximal de lignes par instruction {@code INSERT}
+     */
+    public AssociationBulkWriter(int rowsPerStatement) {
+        if (rowsPerStatement < 1) {
+            throw new IllegalArgumentException("Le nombre de lignes par instruction doit être positif : " + rowsPerStatement);
+        }
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    /**
+     * Ajoute les associations d'un nouveau produit
+     * @param produitId l'identifiant du produit, déjà inséré
+     * @param ingredientIds les identifiants de ses ingrédients, éventuellement répétés
+     * @param allergeneIds les identifiants de ses allergènes, éventuellement répétés
+     */
+    public void add(long produitId, Collection<Long> ingredientIds, Collection<Long> allergeneIds) {
+        pendingRows += put(ingredients, produitId, ingredientIds) + put(allergenes, produitId, allergeneIds);
+    }
+
+    /**
+     * Remplace les associations d'un produit déjà présent en base
+     * @param produitId l'identifiant du produit
+     * @param ingredientIds les identifiants de ses ingrédients, éventuellement répétés
+     * @param allergeneIds les identifiants de ses allergènes, éventuellement répétés
+     */
+    public void replace(long produitId, Collection<Long> ingredientIds, Collection<Long> allergeneIds) {
+        remplaces.add(produitId);
+        add(produitId, ingredientIds, allergeneIds);
+    }
+
+    // Un produit déjà en attente est écrasé : seules ses dernières associations seront écrites
+    private static int put(Map<Long, long[]> associations, long produitId, Collection<Long> ids) {
+        long[] distincts = new LinkedHashSet<>(ids).stream().mapToLong(Long::longValue).toArray();
+        long[] precedents = associations.put(produitId, distincts);
+        return distincts.length - (precedents == null ? 0 : precedents.length);
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lignes d'association en attente d'écriture
+     * @return le nombre de lignes en attente
+     */
+    public int getPendingRows() {
+        return pendingRows;
+    }
+
+    /**
+     * Permet d'obtenir le nombre d'instructions SQL exécutées depuis la création
+     * @return le nombre d'instructions
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lignes d'association écrites depuis la création
+     * @return le nombre de lignes
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    // Produits dont les anciennes associations seront supprimées au prochain flush
+    Set<Long> remplaces() {
+        return Collections.unmodifiableSet(remplaces);
+    }
+
+    // Allergènes distincts en attente d'écriture, par produit
+    Map<Long, long[]> allergenes() {
+        return Collections.unmodifiableMap(allergenes);
+    }
+
+    /**
+     * Écrit les associations en attente sur la connexion de la transaction courante
+     * <p>Les produits concernés doivent déjà avoir été insérés sur cette connexion.</p>
+     * @param connection la connexion JDBC
+     * @throws SQLException en cas d'erreur d'écriture
+     */
+    public void flush(Connection connection) throws SQLException {
+        if (!remplaces.isEmpty()) {
+            delete(connection, "pro_ing");
+            delete(connection, "all_pro");
+            remplaces.clear();
+        }
+        insert(connection, "pro_ing", "ingredient_id", ingredients);
+        insert(connection, "all_pro", "allergen_id", allergenes);
+        ingredients.clear();
+        allergenes.clear();
+        pendingRows = 0;
+    }
+
+    /**
+     * Abandonne les associations en attente, par exemple après l'annulation de la transaction
+     */
+    public void clear() {
+        ingredients.clear();
+        allergenes.clear();
+        remplaces.clear();
+        pendingRows = 0;
+    }
+
+    private void delete(Connection connection, String table) throws SQLException {
+        List<Long> ids = new ArrayList<>(remplaces);
+        for (int debut = 0; debut < ids.size(); debut += rowsPerStatement) {
+            List<Long> lot = ids.subList(debut, Math.min(debut + rowsPerStatement, ids.size()));
+            String sql = "DELETE FROM " + table + " WHERE produit_id IN (" + "?,".repeat(lot.size() - 1) + "?)";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < lot.size(); i++) {
+                    statement.setLong(i + 1, lot.get(i));
+                }
+                statement.executeUpdate();
+                statementCount++;
+            }
+        }
+    }
+
+    private void insert(Connection connection, String table, String colonne, Map<Long, long[]> associations) throws SQLException {
+        String prefixe = "INSERT INTO " + table + " (produit_id, " + colonne + ") VALUES ";
+        PreparedStatement complet = null;
+        try {
+            long[] lot = new long[rowsPerStatement * 2];
+            int lignes = 0;
+            for (Map.Entry<Long, long[]> entree : associations.entrySet()) {
+                for (long id : entree.getValue()) {
+                    lot[lignes * 2] = entree.getKey();
+                    lot[lignes * 2 + 1] = id;
+                    if (++lignes == rowsPerStatement) {
+                        // L'instruction pleine est préparée une seule fois et réutilisée pour chaque lot
+                        if (complet == null) {
+                            complet = connection.prepareStatement(sql(prefixe, rowsPerStatement));
+                        }
+                        execute(complet, lot, lignes);
+                        lignes = 0;
+                    }
+                }
+            }
+            if (lignes > 0) {
+                try (PreparedStatement reste = connection.prepareStatement(sql(prefixe, lignes))) {
+                    execute(reste, lot, lignes);
+                }
+            }
+        } finally {
+            if (complet != null) {
+                complet.close();
+            }
+        }
+    }
+
+    private static String sql(String prefixe, int lignes) {
+        return prefixe + "(?,?),".repeat(lignes - 1) + "(?,?)";
+    }
+
+    private void execute(PreparedStatement statement, long[] lot, int lignes) throws SQLException {
+        for (int i = 0; i < lignes * 2; i++) {
+            statement.setLong(i + 1, lot[i]);
+        }
+        statement.executeUpdate();
+        statementCount++;
+        rowCount += lignes;
+    }
+}
@@ -0,0 +1,261 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Mode de chargement en masse : index secondaires et clés étrangères différés pendant l'import
+ * <p>{@link #disable()} supprime les clés étrangères et les index secondaires des tables produit, pro_ing et all_pro,
+ * que MySQL maintiendrait sinon ligne par ligne. Seuls restent des index non uniques nécessaires aux recherches de l'import
+ * (produit par nom, associations par produit), dont InnoDB peut différer la mise à jour.</p>
+ * <p>{@link #rebuild()} vérifie l'intégrité des données chargées, supprime les associations orphelines et en double,
+ * puis remplace en une instruction par table les index de chargement par la contrainte unique (nom, id_cat, id_marq)
+ * et les clés étrangères.</p>
+ * <p>Les index uniques sur le nom canonique des catégories, marques, ingrédients et allergènes sont conservés :
+ * ces tables sont petites et l'import les interroge par nom canonique à chaque nouvelle valeur.</p>
+ * <p>Les deux méthodes lisent l'état du schéma dans information_schema : elles ne suppriment que ce qui existe
+ * et n'ajoutent que ce qui manque. Après une interruption, y compris pendant {@link #rebuild()}, il suffit de les rappeler.
+ * Les définitions recréées sont celles du mapping des entités.</p>
+ */
+public class BulkLoadIndexes {
+
+    private static final List<String> TABLES = List.of("produit", "pro_ing", "all_pro");
+
+    // Index non uniques utilisés par l'import pendant le chargement
+    private static final Map<String, String> INDEX_CHARGEMENT = Map.of(
+            "produit", "ix_produit_nom (nom)",
+            "pro_ing", "ix_pro_ing_produit (produit_id)",
+            "all_pro", "ix_all_pro_produit (produit_id)");
+
+    // Contraintes recréées après le chargement, par table ; le nom suit ADD CONSTRAINT ou ADD INDEX
+    private static final Map<String, List<String>> CONTRAINTES = new LinkedHashMap<>();
+
+    static {
+        CONTRAINTES.put("produit", List.of(
+                "ADD CONSTRAINT uk_produit_nom_cat_marq UNIQUE (nom, id_cat, id_marq)",
+                "ADD CONSTRAINT fk_produit_marque FOREIGN KEY (id_marq) REFERENCES marque (id)",
+                "ADD CONSTRAINT fk_produit_categorie FOREIGN KEY (id_cat) REFERENCES categorie (id)"));
+        CONTRAINTES.put("pro_ing", List.of(
+                "ADD CONSTRAINT fk_pro_ing_produit FOREIGN KEY (produit_id) REFERENCES produit (id)",
+                "ADD CONSTRAINT fk_pro_ing_ingredient FOREIGN KEY (ingredient_id) REFERENCES ingredient (id)"));
+        CONTRAINTES.put("all_pro", List.of(
+                "ADD CONSTRAINT fk_all_pro_produit FOREIGN KEY (produit_id) REFERENCES produit (id)",
+                "ADD CONSTRAINT fk_all_pro_allergene FOREIGN KEY (allergen_id) REFERENCES allergene (id)"));
+    }
+
+    private final EntityManagerFactory dbFactory;
+
+    /**
+     * Constructeur de la classe BulkLoadIndexes
+     * @param dbFactory la fabrique de l'unité de persistance
+     */
+    public BulkLoadIndexes(EntityManagerFactory dbFactory) {
+        this.dbFactory = dbFactory;
+    }
+
+    /**
+     * Supprime les clés étrangères et les index secondaires avant le chargement
+     */
+    public void disable() {
+        execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String table : TABLES) {
+                    alter(statement, table, clesEtrangeres(statement, table).stream().map(nom -> "DROP FOREIGN KEY " + nom).toList());
+                }
+                for (String table : TABLES) {
+                    String nomIndexChargement = nomIndexChargement(table);
+                    List<String> index = index(statement, table);
+                    List<String> modifications = new ArrayList<>();
+                    for (String nom : index) {
+                        if (!nom.equals(nomIndexChargement)) {
+                            modifications.add("DROP INDEX " + nom);
+                        }
+                    }
+                    if (!index.contains(nomIndexChargement)) {
+                        modifications.add("ADD INDEX " + INDEX_CHARGEMENT.get(table));
+                    }
+                    alter(statement, table, modifications);
+                }
+            }
+        });
+        System.out.println("Chargement en masse : clés étrangères et index secondaires désactivés.");
+    }
+
+    /**
+     * Vérifie l'intégrité des données chargées, puis recrée les contraintes
+     * <p>Les associations orphelines sont supprimées, les associations en double réduites à une ligne.
+     * Si des associations produit/allergène en double ont été supprimées, les compteurs d'allergènes sont à recalculer
+     * par {@link CatalogAggregates#rebuild()}. Si des produits sont en double ou référencent une marque
+     * ou une catégorie absente, les contraintes ne sont pas recréées : les données doivent d'abord être corrigées,
+     * puis cette méthode rappelée.</p>
+     * <p>Les clés étrangères sont ajoutées avec {@code FOREIGN_KEY_CHECKS = 0} : MySQL ne relit pas alors les lignes existantes,
+     * et leur validité repose sur la vérification et la suppression des orphelins faites juste avant.
+     * Aucun import ne doit donc écrire dans ces tables pendant la reconstruction.</p>
+     * @return le rapport d'intégrité établi avant la reconstruction
+     * @throws IllegalStateException si le rapport contient des anomalies bloquantes
+     */
+    public IntegrityReport rebuild() {
+        IntegrityReport[] rapport = new IntegrityReport[1];
+        execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                rapport[0] = verify(statement);
+                System.out.println("Chargement en masse : " + rapport[0]);
+                if (rapport[0].isBloquant()) {
+                    throw new IllegalStateException("Contraintes non recréées, données à corriger : " + rapport[0]);
+                }
+                statement.executeUpdate("DELETE FROM pro_ing WHERE NOT EXISTS (SELECT 1 FROM produit p WHERE p.id = pro_ing.produit_id) "
+                        + "OR NOT EXISTS (SELECT 1 FROM ingredient i WHERE i.id = pro_ing.ingredient_id)");
+                statement.executeUpdate("DELETE FROM all_pro WHERE NOT EXISTS (SELECT 1 FROM produit p WHERE p.id = all_pro.produit_id) "
+                        + "OR NOT EXISTS (SELECT 1 FROM allergene a WHERE a.id = all_pro.allergen_id)");
+                if (rapport[0].liensEnDouble() > 0) {
+                    dedoublonner(statement, "pro_ing", "ingredient_id");
+                    dedoublonner(statement, "all_pro", "allergen_id");
+                }
+
+                // Les données viennent d'être vérifiées : MySQL peut ajouter les clés étrangères sans recopier les tables
+                statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+                try {
+                    for (Map.Entry<String, List<String>> contraintes : CONTRAINTES.entrySet()) {
+                        String table = contraintes.getKey();
+                        List<String> existants = index(statement, table);
+                        existants.addAll(clesEtrangeres(statement, table));
+                        List<String> modifications = new ArrayList<>();
+                        if (existants.contains(nomIndexChargement(table))) {
+                            modifications.add("DROP INDEX " + nomIndexChargement(table));
+                        }
+                        for (String contrainte : contraintes.getValue()) {
+                            if (!existants.contains(contrainte.split(" ")[2])) {
+                                modifications.add(contrainte);
+                            }
+                        }
+                        alter(statement, table, modifications);
+                    }
+                } finally {
+                    statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+                }
+            }
+        });
+        System.out.println("Chargement en masse : contraintes et index reconstruits.");
+        return rapport[0];
+    }
+
+    // Remplace chaque association présente plusieurs fois par une seule ligne : ces tables n'ont pas de clé primaire
+    private static void dedoublonner(Statement statement, String table, String colonne) throws SQLException {
+        statement.execute("CREATE TEMPORARY TABLE liens_en_double AS SELECT produit_id, " + colonne + " FROM " + table
+                + " GROUP BY produit_id, " + colonne + " HAVING COUNT(*) > 1");
+        try {
+            statement.executeUpdate("DELETE l FROM " + table + " l JOIN liens_en_double d "
+                    + "ON d.produit_id = l.produit_id AND d." + colonne + " = l." + colonne);
+            statement.executeUpdate("INSERT INTO " + table + " (produit_id, " + colonne + ") "
+                    + "SELECT produit_id, " + colonne + " FROM liens_en_double");
+        } finally {
+            statement.execute("DROP TEMPORARY TABLE liens_en_double");
+        }
+    }
+
+    private IntegrityReport verify(Statement statement) throws SQLException {
+        return new IntegrityReport(
+                count(statement, "SELECT COUNT(*) FROM (SELECT 1 FROM produit GROUP BY nom, id_cat, id_marq HAVING COUNT(*) > 1) d"),
+                count(statement, "SELECT COUNT(*) FROM produit p "
+                        + "WHERE (p.id_marq IS NOT NULL AND NOT EXISTS (SELECT 1 FROM marque m WHERE m.id = p.id_marq)) "
+                        + "OR (p.id_cat IS NOT NULL AND NOT EXISTS (SELECT 1 FROM categorie c WHERE c.id = p.id_cat))"),
+                count(statement, "SELECT COUNT(*) FROM pro_ing l WHERE NOT EXISTS (SELECT 1 FROM produit p WHERE p.id = l.produit_id) "
+                        + "OR NOT EXISTS (SELECT 1 FROM ingredient i WHERE i.id = l.ingredient_id)"),
+                count(statement, "SELECT COUNT(*) FROM all_pro l WHERE NOT EXISTS (SELECT 1 FROM produit p WHERE p.id = l.produit_id) "
+                        + "OR NOT EXISTS (SELECT 1 FROM allergene a WHERE a.id = l.allergen_id)"),
+                count(statement, "SELECT COUNT(*) FROM (SELECT 1 FROM pro_ing GROUP BY produit_id, ingredient_id HAVING COUNT(*) > 1) d")
+                        + count(statement, "SELECT COUNT(*) FROM (SELECT 1 FROM all_pro GROUP BY produit_id, allergen_id HAVING COUNT(*) > 1) d"));
+    }
+
+    private void execute(Work work) {
+        EntityManager em = dbFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.unwrap(Session.class).doWork(work);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static String nomIndexChargement(String table) {
+        String indexChargement = INDEX_CHARGEMENT.get(table);
+        return indexChargement.substring(0, indexChargement.indexOf(' '));
+    }
+
+    private static List<String> index(Statement statement, String table) throws SQLException {
+        return noms(statement, "SELECT DISTINCT INDEX_NAME FROM information_schema.STATISTICS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + table + "' AND INDEX_NAME <> 'PRIMARY'");
+    }
+
+    private static List<String> clesEtrangeres(Statement statement, String table) throws SQLException {
+        return noms(statement, "SELECT CONSTRAINT_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS "
+                + "WHERE CONSTRAINT_SCHEMA = DATABASE() AND TABLE_NAME = '" + table + "'");
+    }
+
+    private static void alter(Statement statement, String table, List<String> modifications) throws SQLException {
+        if (!modifications.isEmpty()) {
+            statement.execute("ALTER TABLE " + table + " " + String.join(", ", modifications));
+        }
+    }
+
+    private static List<String> noms(Statement statement, String requete) throws SQLException {
+        List<String> noms = new ArrayList<>();
+        try (ResultSet resultats = statement.executeQuery(requete)) {
+            while (resultats.next()) {
+                noms.add(resultats.getString(1));
+            }
+        }
+        return noms;
+    }
+
+    private static long count(Statement statement, String requete) throws SQLException {
+        try (ResultSet resultats = statement.executeQuery(requete)) {
+            resultats.next();
+            return resultats.getLong(1);
+        }
+    }
+
+    /**
+     * Rapport d'intégrité établi après un chargement en masse
+     * @param produitsEnDouble le nombre de clés naturelles (nom, catégorie, marque) portées par plusieurs produits
+     * @param produitsSansReference le nombre de produits dont la marque ou la catégorie n'existe pas
+     * @param liensIngredientOrphelins le nombre de lignes de pro_ing dont le produit ou l'ingrédient n'existe pas
+     * @param liensAllergeneOrphelins le nombre de lignes de all_pro dont le produit ou l'allergène n'existe pas
+     * @param liensEnDouble le nombre de couples produit/ingrédient ou produit/allergène présents plusieurs fois, réduits à une ligne
+     */
+    public record IntegrityReport(long produitsEnDouble,
+                                  long produitsSansReference,
+                                  long liensIngredientOrphelins,
+                                  long liensAllergeneOrphelins,
+                                  long liensEnDouble) {
+
+        /**
+         * Indique si les contraintes ne peuvent pas être recréées en l'état
+         * @return {@code true} si des produits sont en double ou référencent une ligne absente
+         */
+        public boolean isBloquant() {
+            return produitsEnDouble > 0 || produitsSansReference > 0;
+        }
+
+        @Override
+        public String toString() {
+            return produitsEnDouble + " produits en double, " + produitsSansReference + " produits sans marque ou catégorie valide, "
+                    + liensIngredientOrphelins + " liens produit/ingrédient orphelins, "
+                    + liensAllergeneOrphelins + " liens produit/allergène orphelins, " + liensEnDouble + " liens en double";
+        }
+    }
+}
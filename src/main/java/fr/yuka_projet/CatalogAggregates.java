@@ -0,0 +1,148 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lecture des compteurs du catalogue tenus à jour par l'import, pour les tableaux de bord
+ * <p>Chaque compteur est la somme de ses parties dans {@link AgregatCatalogue}, une par moteur parallèle au plus,
+ * lues sur le début de la clé primaire : le nombre de produits d'une catégorie, d'une marque ou contenant un allergène
+ * ne demande plus de regrouper la table produit.</p>
+ * <p>Les compteurs ne sont exacts que si toutes les écritures de produits passent par les moteurs d'import.
+ * Pour une base remplie autrement, ou antérieure à la table {@code agregat_catalogue}, {@link #rebuild()} les recalcule.
+ * {@link #verifier()} compare les compteurs tenus par l'import à ce recalcul, sans les modifier.</p>
+ */
+public class CatalogAggregates {
+
+    // Recalcul de chaque regroupement à partir des tables produit et all_pro : dimension, reference_id, score, nb
+    private static final List<String> RECALCULS = List.of(
+            "SELECT 'CATEGORIE_SCORE' AS dimension, id_cat AS reference_id, score_nutritionnel AS score, COUNT(*) AS nb "
+                    + "FROM produit WHERE id_cat IS NOT NULL GROUP BY id_cat, score_nutritionnel",
+            "SELECT 'MARQUE' AS dimension, id_marq AS reference_id, '' AS score, COUNT(*) AS nb "
+                    + "FROM produit WHERE id_marq IS NOT NULL GROUP BY id_marq",
+            "SELECT 'ALLERGENE' AS dimension, allergen_id AS reference_id, '' AS score, COUNT(*) AS nb "
+                    + "FROM all_pro GROUP BY allergen_id");
+
+    private final EntityManager em;
+
+    /**
+     * Constructeur avec EntityManager
+     * @param em l'EntityManager utilisé pour lire les compteurs
+     */
+    public CatalogAggregates(EntityManager em) {
+        this.em = em;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de produits d'une catégorie ayant un score nutritionnel
+     * @param categorieId l'identifiant de la catégorie
+     * @param score le score nutritionnel
+     * @return le nombre de produits
+     */
+    public long produitsParCategorieEtScore(long categorieId, NutritionGradeFr score) {
+        return lire(AgregatCatalogue.Dimension.CATEGORIE_SCORE, categorieId, score);
+    }
+
+    /**
+     * Permet d'obtenir la répartition des produits d'une catégorie par score nutritionnel
+     * @param categorieId l'identifiant de la catégorie
+     * @return le nombre de produits pour chaque score, y compris les scores sans produit
+     */
+    public Map<NutritionGradeFr, Long> repartitionScores(long categorieId) {
+        Map<NutritionGradeFr, Long> repartition = new EnumMap<>(NutritionGradeFr.class);
+        for (NutritionGradeFr score : NutritionGradeFr.values()) {
+            repartition.put(score, produitsParCategorieEtScore(categorieId, score));
+        }
+        return repartition;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de produits d'une marque
+     * @param marqueId l'identifiant de la marque
+     * @return le nombre de produits
+     */
+    public long produitsParMarque(long marqueId) {
+        return lire(AgregatCatalogue.Dimension.MARQUE, marqueId, null);
+    }
+
+    /**
+     * Permet d'obtenir le nombre de produits contenant un allergène
+     * @param allergeneId l'identifiant de l'allergène
+     * @return le nombre de produits
+     */
+    public long produitsParAllergene(long allergeneId) {
+        return lire(AgregatCatalogue.Dimension.ALLERGENE, allergeneId, null);
+    }
+
+    /**
+     * Recalcule tous les compteurs à partir des tables produit et all_pro, dans une transaction
+     * <p>À utiliser une seule fois sur une base existante : les imports suivants ajustent ensuite les compteurs.
+     * Les parties écrites par les moteurs parallèles sont regroupées dans la partie 0.</p>
+     */
+    public void rebuild() {
+        long debut = System.nanoTime();
+        em.getTransaction().begin();
+        try {
+            em.createNativeQuery("DELETE FROM agregat_catalogue").executeUpdate();
+            for (String recalcul : RECALCULS) {
+                em.createNativeQuery("INSERT INTO agregat_catalogue (dimension, reference_id, score, partie, nb) "
+                        + "SELECT r.dimension, r.reference_id, r.score, 0, r.nb FROM (" + recalcul + ") r").executeUpdate();
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+        em.clear();
+        System.out.println("Compteurs du catalogue recalculés en " + (System.nanoTime() - debut) / 1_000_000 + " ms.");
+    }
+
+    /**
+     * Compare les compteurs tenus à jour par les imports au recalcul qu'en ferait {@link #rebuild()}, sans rien modifier
+     * <p>Un compteur absent compte pour 0, des deux côtés.</p>
+     * @return les compteurs différents, sous la forme "clé : tenu / recalculé", vide si tous les compteurs sont exacts
+     */
+    public List<String> verifier() {
+        // Par clé : le compteur tenu, puis le compteur recalculé
+        Map<String, long[]> compteurs = new TreeMap<>();
+        relever(compteurs, 0, "SELECT dimension, reference_id, score, SUM(nb) FROM agregat_catalogue "
+                + "GROUP BY dimension, reference_id, score");
+        for (String recalcul : RECALCULS) {
+            relever(compteurs, 1, recalcul);
+        }
+        List<String> ecarts = new ArrayList<>();
+        compteurs.forEach((cle, nb) -> {
+            if (nb[0] != nb[1]) {
+                ecarts.add(cle + " : " + nb[0] + " / " + nb[1]);
+            }
+        });
+        return ecarts;
+    }
+
+    private void relever(Map<String, long[]> compteurs, int colonne, String requete) {
+        List<?> lignes = em.createNativeQuery(requete).getResultList();
+        for (Object ligne : lignes) {
+            Object[] colonnes = (Object[]) ligne;
+            // Le score vide peut revenir complété d'espaces selon le type de la colonne
+            String score = colonnes[2] == null ? "" : colonnes[2].toString().trim();
+            String cle = colonnes[0] + ":" + colonnes[1] + (score.isEmpty() ? "" : ":" + score);
+            compteurs.computeIfAbsent(cle, c -> new long[2])[colonne] = ((Number) colonnes[3]).longValue();
+        }
+    }
+
+    private long lire(AgregatCatalogue.Dimension dimension, long referenceId, NutritionGradeFr score) {
+        // Requête plutôt que find : une lecture suivante avec le même EntityManager voit les imports validés entre-temps
+        Long nb = em.createQuery("SELECT SUM(a.nb) FROM AgregatCatalogue a WHERE a.cle.dimension = :dimension "
+                        + "AND a.cle.referenceId = :referenceId AND a.cle.score = :score", Long.class)
+                .setParameter("dimension", dimension)
+                .setParameter("referenceId", referenceId)
+                .setParameter("score", score == null ? "" : score.name())
+                .getSingleResult();
+        return nb == null ? 0 : nb;
+    }
+}
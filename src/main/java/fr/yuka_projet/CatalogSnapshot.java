@@ -0,0 +1,322 @@
+package fr.yuka_projet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lecture d'un instantané binaire du catalogue produit par {@link CatalogSnapshotWriter}
+ * <p>Le fichier est projeté en mémoire ({@code FileChannel.map}) : aucune donnée n'est désérialisée à l'ouverture,
+ * les recherches lisent directement les octets du fichier hors du tas Java. Le temps de démarrage et la taille du tas
+ * ne dépendent donc pas de la taille du catalogue.</p>
+ * <p>Format (big-endian) :</p>
+ * <pre>
+ * en-tête ({@value #HEADER_SIZE} octets)
+ *   long  MAGIC
+ *   int   VERSION
+ *   int   nombre de chaînes
+ *   int   nombre de produits
+ *   int   nombre d'ids d'ingrédients et d'allergènes
+ *   long  position de la table des chaînes   int[nbChaines + 1], positions dans la zone des chaînes
+ *   long  position de la zone des chaînes    UTF-8, chaînes distinctes triées par octets
+ *   long  position de la table des produits  enregistrements de {@value #RECORD_SIZE} octets, triés par nom puis id
+ *   long  position de l'index des ids         int[nbProduits], lignes de la table des produits triées par id
+ *   long  position de la zone des ids         int[nbIds]
+ *
+ * enregistrement produit
+ *   0   long  id
+ *   8   int   nom         indice de chaîne
+ *   12  int   marque      indice de chaîne, -1 si absente
+ *   16  int   categorie   indice de chaîne, -1 si absente
+ *   20  byte  score       ordinal de {@link NutritionGradeFr}, -1 si absent
+ *   24  int   début de la liste d'ids dans la zone des ids
+ *   28  char  nombre d'ingrédients
+ *   30  char  nombre d'allergènes (à la suite des ingrédients)
+ *   32  long  masque des allergènes ({@link AllergenMask})
+ * </pre>
+ * <p>Chaque zone est projetée séparément et doit donc rester sous 2 Go.
+ * Les lectures sont absolues : une instance peut être partagée entre plusieurs threads.</p>
+ */
+public final class CatalogSnapshot implements AutoCloseable {
+
+    static final long MAGIC = 0x4F46465F534E4150L; // "OFF_SNAP"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+
+    private final FileChannel canal;
+    private final int nbChaines;
+    private final int nbProduits;
+    private final MappedByteBuffer tableChaines;
+    private final MappedByteBuffer chaines;
+    private final MappedByteBuffer produits;
+    private final MappedByteBuffer indexIds;
+    private final MappedByteBuffer ids;
+
+    private CatalogSnapshot(FileChannel canal) throws IOException {
+        this.canal = canal;
+        ByteBuffer entete = canal.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (entete.getLong(0) != MAGIC) {
+            throw new IOException("Le fichier n'est pas un instantané du catalogue.");
+        }
+        int version = entete.getInt(8);
+        if (version != VERSION) {
+            throw new IOException("Version d'instantané non supportée : " + version + " (attendue : " + VERSION + ").");
+        }
+        nbChaines = entete.getInt(12);
+        nbProduits = entete.getInt(16);
+        int nbIds = entete.getInt(20);
+        long posTableChaines = entete.getLong(24);
+        long posChaines = entete.getLong(32);
+        long posProduits = entete.getLong(40);
+        long posIndexIds = entete.getLong(48);
+        long posIds = entete.getLong(56);
+
+        tableChaines = map(posTableChaines, (nbChaines + 1L) * Integer.BYTES);
+        chaines = map(posChaines, posProduits - posChaines);
+        produits = map(posProduits, (long) nbProduits * RECORD_SIZE);
+        indexIds = map(posIndexIds, (long) nbProduits * Integer.BYTES);
+        ids = map(posIds, (long) nbIds * Integer.BYTES);
+    }
+
+    /**
+     * Ouvre et projette en mémoire un instantané
+     * @param fichier le fichier écrit par {@link CatalogSnapshotWriter}
+     * @return l'instantané, à fermer après usage
+     * @throws IOException si le fichier est illisible, d'un autre format ou d'une autre version
+     */
+    public static CatalogSnapshot open(Path fichier) throws IOException {
+        FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ);
+        try {
+            return new CatalogSnapshot(canal);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer map(long position, long taille) throws IOException {
+        if (taille > Integer.MAX_VALUE) {
+            throw new IOException("Zone de l'instantané trop grande pour être projetée : " + taille + " octets.");
+        }
+        return canal.map(FileChannel.MapMode.READ_ONLY, position, taille);
+    }
+
+    /**
+     * Permet d'obtenir le nombre de produits de l'instantané
+     * @return le nombre de lignes de la table des produits
+     */
+    public int getNombreProduits() {
+        return nbProduits;
+    }
+
+    /**
+     * Recherche les produits portant exactement ce nom
+     * @param nom le nom du produit
+     * @return les lignes correspondantes, vide si aucun produit ne porte ce nom
+     */
+    public int[] findByNom(String nom) {
+        int indice = indiceChaine(nom.getBytes(StandardCharsets.UTF_8));
+        if (indice < 0) {
+            return new int[0];
+        }
+        // Les produits sont triés par indice de nom : recherche de la première ligne puis parcours
+        int bas = 0;
+        int haut = nbProduits;
+        while (bas < haut) {
+            int milieu = (bas + haut) >>> 1;
+            if (produits.getInt(milieu * RECORD_SIZE + 8) < indice) {
+                bas = milieu + 1;
+            } else {
+                haut = milieu;
+            }
+        }
+        int fin = bas;
+        while (fin < nbProduits && produits.getInt(fin * RECORD_SIZE + 8) == indice) {
+            fin++;
+        }
+        int[] lignes = new int[fin - bas];
+        for (int i = 0; i < lignes.length; i++) {
+            lignes[i] = bas + i;
+        }
+        return lignes;
+    }
+
+    /**
+     * Recherche un produit par son identifiant en base
+     * @param id l'identifiant du produit
+     * @return la ligne du produit, ou -1 s'il est absent de l'instantané
+     */
+    public int findById(long id) {
+        int bas = 0;
+        int haut = nbProduits - 1;
+        while (bas <= haut) {
+            int milieu = (bas + haut) >>> 1;
+            int ligne = indexIds.getInt(milieu * Integer.BYTES);
+            long courant = getId(ligne);
+            if (courant < id) {
+                bas = milieu + 1;
+            } else if (courant > id) {
+                haut = milieu - 1;
+            } else {
+                return ligne;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Permet d'obtenir l'identifiant en base du produit
+     * @param ligne la ligne du produit
+     * @return l'identifiant du produit
+     */
+    public long getId(int ligne) {
+        return produits.getLong(position(ligne));
+    }
+
+    /**
+     * Permet d'obtenir le nom du produit
+     * @param ligne la ligne du produit
+     * @return le nom
+     */
+    public String getNom(int ligne) {
+        return chaine(produits.getInt(position(ligne) + 8));
+    }
+
+    /**
+     * Permet d'obtenir le nom de la marque du produit
+     * @param ligne la ligne du produit
+     * @return le nom de la marque, ou {@code null}
+     */
+    public String getMarque(int ligne) {
+        return chaine(produits.getInt(position(ligne) + 12));
+    }
+
+    /**
+     * Permet d'obtenir le nom de la catégorie du produit
+     * @param ligne la ligne du produit
+     * @return le nom de la catégorie, ou {@code null}
+     */
+    public String getCategorie(int ligne) {
+        return chaine(produits.getInt(position(ligne) + 16));
+    }
+
+    /**
+     * Permet d'obtenir le score nutritionnel du produit
+     * @param ligne la ligne du produit
+     * @return le score, ou {@code null}
+     */
+    public NutritionGradeFr getScoreNutritionnel(int ligne) {
+        byte score = produits.get(position(ligne) + 20);
+        return score < 0 ? null : NutritionGradeFr.values()[score];
+    }
+
+    /**
+     * Permet d'obtenir les identifiants des ingrédients du produit
+     * @param ligne la ligne du produit
+     * @return les identifiants des ingrédients
+     */
+    public int[] getIngredientIds(int ligne) {
+        int position = position(ligne);
+        return lireIds(produits.getInt(position + 24), produits.getChar(position + 28));
+    }
+
+    /**
+     * Permet d'obtenir les identifiants des allergènes du produit
+     * @param ligne la ligne du produit
+     * @return les identifiants des allergènes
+     */
+    public int[] getAllergeneIds(int ligne) {
+        int position = position(ligne);
+        return lireIds(produits.getInt(position + 24) + produits.getChar(position + 28), produits.getChar(position + 30));
+    }
+
+    /**
+     * Permet d'obtenir le masque des allergènes du produit
+     * @param ligne la ligne du produit
+     * @return le masque, voir {@link AllergenMask}
+     */
+    public long getAllergenesMasque(int ligne) {
+        return produits.getLong(position(ligne) + 32);
+    }
+
+    /**
+     * Teste si le produit est sans les allergènes d'un masque, sans lire la zone des ids
+     * @param ligne la ligne du produit
+     * @param masqueExclus le masque des allergènes à exclure, calculé par {@link AllergenMask}
+     * @return {@code true} si le produit ne contient aucun de ces allergènes
+     */
+    public boolean isSansAllergenes(int ligne, long masqueExclus) {
+        return AllergenMask.sans(getAllergenesMasque(ligne), masqueExclus);
+    }
+
+    private int position(int ligne) {
+        if (ligne < 0 || ligne >= nbProduits) {
+            throw new IndexOutOfBoundsException("Ligne " + ligne + " hors de l'instantané (" + nbProduits + " produits).");
+        }
+        return ligne * RECORD_SIZE;
+    }
+
+    private int[] lireIds(int debut, int nombre) {
+        int[] resultat = new int[nombre];
+        for (int i = 0; i < nombre; i++) {
+            resultat[i] = ids.getInt((debut + i) * Integer.BYTES);
+        }
+        return resultat;
+    }
+
+    private String chaine(int indice) {
+        if (indice < 0) {
+            return null;
+        }
+        int debut = tableChaines.getInt(indice * Integer.BYTES);
+        int fin = tableChaines.getInt((indice + 1) * Integer.BYTES);
+        byte[] octets = new byte[fin - debut];
+        chaines.get(debut, octets);
+        return new String(octets, StandardCharsets.UTF_8);
+    }
+
+    // Recherche dichotomique dans le dictionnaire, en comparant les octets projetés sans décoder les chaînes
+    private int indiceChaine(byte[] cle) {
+        int bas = 0;
+        int haut = nbChaines - 1;
+        while (bas <= haut) {
+            int milieu = (bas + haut) >>> 1;
+            int comparaison = comparer(milieu, cle);
+            if (comparaison < 0) {
+                bas = milieu + 1;
+            } else if (comparaison > 0) {
+                haut = milieu - 1;
+            } else {
+                return milieu;
+            }
+        }
+        return -1;
+    }
+
+    private int comparer(int indice, byte[] cle) {
+        int debut = tableChaines.getInt(indice * Integer.BYTES);
+        int longueur = tableChaines.getInt((indice + 1) * Integer.BYTES) - debut;
+        int commun = Math.min(longueur, cle.length);
+        for (int i = 0; i < commun; i++) {
+            int difference = Byte.toUnsignedInt(chaines.get(debut + i)) - Byte.toUnsignedInt(cle[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return longueur - cle.length;
+    }
+
+    /**
+     * Ferme le canal du fichier
+     * <p>Les projections restent valides jusqu'à leur libération par le ramasse-miettes.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+}
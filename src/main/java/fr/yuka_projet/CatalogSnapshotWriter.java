@@ -0,0 +1,199 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Exporte le catalogue de la base dans un instantané binaire lisible par {@link CatalogSnapshot}
+ * <p>Les chaînes (noms de produits, marques et catégories) sont dédoublonnées dans un dictionnaire trié,
+ * les produits sont des enregistrements de taille fixe qui ne contiennent que des indices et des positions.
+ * Le fichier est d'abord écrit à côté de sa destination puis renommé, un lecteur ne voit donc jamais un instantané partiel.</p>
+ */
+public class CatalogSnapshotWriter {
+
+    private final EntityManager em;
+
+    /**
+     * Constructeur avec EntityManager
+     * @param em l'EntityManager utilisé pour lire le catalogue
+     */
+    public CatalogSnapshotWriter(EntityManager em) {
+        this.em = em;
+    }
+
+    /**
+     * Écrit l'instantané du catalogue
+     * @param fichier le fichier de destination, remplacé s'il existe
+     * @throws IOException en cas d'erreur d'écriture ou si le catalogue dépasse les limites du format
+     */
+    public void export(Path fichier) throws IOException {
+        List<ProduitExporte> produits = lireProduits();
+        Map<Long, List<Integer>> ingredients = lireAssociations("SELECT produit_id, ingredient_id FROM pro_ing");
+        Map<Long, List<Integer>> allergenes = lireAssociations("SELECT produit_id, allergen_id FROM all_pro");
+
+        // Dictionnaire des chaînes, trié par octets pour permettre la recherche dichotomique côté lecture
+        Map<String, byte[]> encodees = new HashMap<>();
+        for (ProduitExporte produit : produits) {
+            for (String chaine : new String[]{produit.nom, produit.marque, produit.categorie}) {
+                if (chaine != null) {
+                    encodees.computeIfAbsent(chaine, c -> c.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        List<Map.Entry<String, byte[]>> dictionnaire = new ArrayList<>(encodees.entrySet());
+        dictionnaire.sort(Map.Entry.comparingByValue(Arrays::compareUnsigned));
+        Map<String, Integer> indices = new HashMap<>();
+        long tailleChaines = 0;
+        for (int i = 0; i < dictionnaire.size(); i++) {
+            indices.put(dictionnaire.get(i).getKey(), i);
+            tailleChaines += dictionnaire.get(i).getValue().length;
+        }
+        if (tailleChaines > Integer.MAX_VALUE) {
+            throw new IOException("Dictionnaire de chaînes trop grand pour l'instantané : " + tailleChaines + " octets.");
+        }
+
+        // Les listes d'ids sont rangées dans l'ordre des identifiants, la table des produits dans l'ordre des noms
+        produits.sort(Comparator.comparingLong(p -> p.id));
+        long nbIds = 0;
+        for (ProduitExporte produit : produits) {
+            produit.debutIds = Math.toIntExact(nbIds);
+            produit.ingredients = ingredients.getOrDefault(produit.id, List.of());
+            produit.allergenes = allergenes.getOrDefault(produit.id, List.of());
+            if (produit.ingredients.size() > Character.MAX_VALUE || produit.allergenes.size() > Character.MAX_VALUE) {
+                throw new IOException("Trop d'ingrédients ou d'allergènes pour le produit " + produit.id + ".");
+            }
+            nbIds += produit.ingredients.size() + produit.allergenes.size();
+        }
+        if (nbIds * Integer.BYTES > Integer.MAX_VALUE) {
+            throw new IOException("Trop d'associations pour l'instantané : " + nbIds + ".");
+        }
+        int[] lignesParId = new int[produits.size()];
+        List<ProduitExporte> parNom = new ArrayList<>(produits);
+        parNom.sort(Comparator.<ProduitExporte>comparingInt(p -> indices.get(p.nom)).thenComparingLong(p -> p.id));
+        for (int ligne = 0; ligne < parNom.size(); ligne++) {
+            parNom.get(ligne).ligne = ligne;
+        }
+        for (int i = 0; i < produits.size(); i++) {
+            lignesParId[i] = produits.get(i).ligne;
+        }
+
+        long posTableChaines = CatalogSnapshot.HEADER_SIZE;
+        long posChaines = posTableChaines + (dictionnaire.size() + 1L) * Integer.BYTES;
+        long posProduits = posChaines + tailleChaines;
+        long posIndexIds = posProduits + (long) produits.size() * CatalogSnapshot.RECORD_SIZE;
+        long posIds = posIndexIds + (long) produits.size() * Integer.BYTES;
+
+        Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaire), 1 << 16))) {
+            out.writeLong(CatalogSnapshot.MAGIC);
+            out.writeInt(CatalogSnapshot.VERSION);
+            out.writeInt(dictionnaire.size());
+            out.writeInt(produits.size());
+            out.writeInt((int) nbIds);
+            out.writeLong(posTableChaines);
+            out.writeLong(posChaines);
+            out.writeLong(posProduits);
+            out.writeLong(posIndexIds);
+            out.writeLong(posIds);
+
+            int position = 0;
+            for (Map.Entry<String, byte[]> entree : dictionnaire) {
+                out.writeInt(position);
+                position += entree.getValue().length;
+            }
+            out.writeInt(position);
+            for (Map.Entry<String, byte[]> entree : dictionnaire) {
+                out.write(entree.getValue());
+            }
+
+            for (ProduitExporte produit : parNom) {
+                out.writeLong(produit.id);
+                out.writeInt(indices.get(produit.nom));
+                out.writeInt(produit.marque == null ? -1 : indices.get(produit.marque));
+                out.writeInt(produit.categorie == null ? -1 : indices.get(produit.categorie));
+                out.writeByte(produit.score == null ? -1 : produit.score.ordinal());
+                out.write(new byte[3]);
+                out.writeInt(produit.debutIds);
+                out.writeChar(produit.ingredients.size());
+                out.writeChar(produit.allergenes.size());
+                out.writeLong(produit.masque);
+            }
+
+            for (int ligne : lignesParId) {
+                out.writeInt(ligne);
+            }
+
+            for (ProduitExporte produit : produits) {
+                for (int id : produit.ingredients) {
+                    out.writeInt(id);
+                }
+                for (int id : produit.allergenes) {
+                    out.writeInt(id);
+                }
+            }
+        }
+        Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Instantané du catalogue écrit : " + produits.size() + " produits, "
+                + dictionnaire.size() + " chaînes, " + nbIds + " associations.");
+    }
+
+    private List<ProduitExporte> lireProduits() {
+        List<ProduitExporte> produits = new ArrayList<>();
+        try (Stream<Object[]> lignes = lignes("SELECT p.id, p.nom, m.nom, c.nom, p.score_nutritionnel, p.allergenes_masque "
+                + "FROM produit p LEFT JOIN marque m ON m.id = p.id_marq LEFT JOIN categorie c ON c.id = p.id_cat")) {
+            lignes.forEach(colonnes -> {
+                ProduitExporte produit = new ProduitExporte();
+                produit.id = ((Number) colonnes[0]).longValue();
+                produit.nom = (String) colonnes[1];
+                produit.marque = (String) colonnes[2];
+                produit.categorie = (String) colonnes[3];
+                produit.score = colonnes[4] == null ? null : NutritionGradeFr.valueOf((String) colonnes[4]);
+                produit.masque = ((Number) colonnes[5]).longValue();
+                produits.add(produit);
+            });
+        }
+        return produits;
+    }
+
+    private Map<Long, List<Integer>> lireAssociations(String requete) {
+        Map<Long, List<Integer>> associations = new HashMap<>();
+        try (Stream<Object[]> lignes = lignes(requete)) {
+            lignes.forEach(colonnes -> associations.computeIfAbsent(((Number) colonnes[0]).longValue(), id -> new ArrayList<>())
+                    .add(Math.toIntExact(((Number) colonnes[1]).longValue())));
+        }
+        return associations;
+    }
+
+    // Une requête native de plusieurs colonnes retourne chaque ligne sous forme de tableau, le flux est à fermer
+    @SuppressWarnings("unchecked")
+    private Stream<Object[]> lignes(String requete) {
+        return em.createNativeQuery(requete).getResultStream();
+    }
+
+    // Produit en cours d'export, avec ses positions dans le fichier
+    private static final class ProduitExporte {
+        long id;
+        String nom;
+        String marque;
+        String categorie;
+        NutritionGradeFr score;
+        long masque;
+        List<Integer> ingredients;
+        List<Integer> allergenes;
+        int debutIds;
+        int ligne;
+    }
+}
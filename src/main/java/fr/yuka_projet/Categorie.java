@@ -1,5 +1,6 @@
 package fr.yuka_projet;
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,19 +29,28 @@ public class Categorie {
       * <ul>
       *     <li>Longueur maximale : 255 caractères</li>
       *     <li>Ne doit pas ête nul</li>
-      *     <li>Doit être unique</li>
       * </ul>
       */
-     @Column(name="nom", length = 255, nullable = false, unique = true)
+     @Column(name="nom", length = 255, nullable = false)
      private String nom;
 
+     /**
+      * La forme canonique du nom de la catégorie, calculée par {@link NameNormalizer}
+      * <p>Clé de recherche de l'import : "Biscuits" et "biscuits." désignent la même ligne, dont le champ {@code nom}
+      * garde l'écriture rencontrée en premier. C'est cette colonne qui est unique.</p>
+      */
+     @Column(name="nom_canonique", length = 255, nullable = false, unique = true)
+     private String nomCanonique;
+
      /**
       * Représente la liste des produits appartenant à cette catégorie
       * <p>Ce champ est annoté avec {@code @OneToMany(mappedBy = "categorie")} pour indiquer qu'il s'agit d'une relation un-à-plusieurs
       * avec l'entité {@code Produit}.
       * Le champ {@code categorie} dans l'entité {@code Produit} est utilisé pour mapper cette relation.</p>
+      * <p>Une catégorie courante regroupe des milliers de produits : pour les compter, {@link CatalogAggregates} évite de charger la liste.</p>
       */
      @OneToMany(mappedBy = "categorie")
+     @BatchSize(size = 50)
      List<Produit> produits = new ArrayList<>();
 
      /**
@@ -52,10 +62,21 @@ public class Categorie {
 
      /**
       * Constructeur de la classe Categorie
+      * <p>La forme canonique est calculée à partir du nom.</p>
       * @param nom
       */
      public Categorie(String nom) {
+          this(nom, NameNormalizer.canonicalize(nom));
+     }
+
+     /**
+      * Constructeur avec le nom affiché et sa forme canonique, déjà calculée par l'import
+      * @param nom le nom affiché de la catégorie
+      * @param nomCanonique la forme canonique du nom
+      */
+     public Categorie(String nom, String nomCanonique) {
           this.nom = nom;
+          this.nomCanonique = nomCanonique;
      }
 
      /**
@@ -82,6 +103,14 @@ public class Categorie {
           this.nom = nom;
      }
 
+     /**
+      * Permet d'obtenir la forme canonique du nom de la catégorie
+      * @return la forme canonique, clé de recherche de l'import
+      */
+     public String getNomCanonique() {
+          return nomCanonique;
+     }
+
      /**
       * Permet d'obtenir la liste des produits appartenant à cette catégorie
       * @return une liste de produits de cette catégorie
@@ -103,7 +132,6 @@ public class Categorie {
           return "Categorie{" +
                   "id_categorie=" + id +
                   ", nom='" + nom + '\'' +
-                  ", produits=" + produits +
                   '}';
      }
 }
@@ -1,162 +1,398 @@
 package fr.yuka_projet;
 
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 import jakarta.persistence.EntityManager;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CsvImporterFood {
 
-    private EntityManager em;
+    /**
+     * Nombre de lignes lues par transaction par défaut
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    /**
+     * Nombre maximal de tentatives successives pour un lot annulé sur une attente de verrou
+     */
+    public static final int MAX_TENTATIVES = 5;
+
+    private final ImportEngine engine;
+    private final ImportMetrics metrics = new ImportMetrics();
+    private final LigneProduitParser parser = new LigneProduitParser(new NameNormalizer(), true);
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private AdaptiveBatchController controller;
+    private ReferenceDictionary dictionnaire;
+    private List<ImportEngine> workers = List.of();
 
     // Constructeur avec EntityManager
     public CsvImporterFood(EntityManager em) {
-        this.em = em;
+        this(new EntityManagerImportEngine(em));
+    }
+
+    // Constructeur avec le moteur d'écriture à utiliser
+    public CsvImporterFood(ImportEngine engine) {
+        this.engine = engine;
     }
 
     public void importCSVToDatabase(String filePath) throws FileNotFoundException, IOException {
+        importCSVToDatabase(filePath, false);
+    }
+
+    /**
+     * Importe le fichier par lots de {@code chunkSize} lignes, chacun validé dans sa propre transaction
+     * avec le point de reprise correspondant
+     * <p>Un lot qui échoue sur une attente de verrou est annulé puis relu depuis le dernier point de reprise,
+     * au plus {@value #MAX_TENTATIVES} fois de suite.</p>
+     * <p>Avec des moteurs parallèles (voir {@link #setWorkers(List)}), les lignes de chaque lot sont réparties entre eux
+     * selon leur clé de produit, et le point de reprise n'avance qu'une fois toutes les parties du lot validées.</p>
+     * @param filePath le chemin du fichier CSV
+     * @param reprise {@code true} pour reprendre après le dernier lot validé d'un import précédent du même fichier
+     * @throws IOException en cas d'erreur de lecture ou d'écriture, les lots déjà validés restent en base
+     */
+    public void importCSVToDatabase(String filePath, boolean reprise) throws FileNotFoundException, IOException {
+        metrics.start();
+        Path fichier = Path.of(filePath);
+        if (!Files.isRegularFile(fichier)) {
+            throw new FileNotFoundException(filePath);
+        }
+        if (!workers.isEmpty() && dictionnaire == null) {
+            throw new IllegalStateException("L'import parallèle nécessite les dictionnaires de la première passe");
+        }
         //extraire les données séparés par |
-        try (CSVReader reader = new CSVReaderBuilder(new FileReader(filePath))
-                .withCSVParser(new CSVParserBuilder().withSeparator('|').build())
-                .build()) {
-
-            List<String[]> rows = reader.readAll();
-            // Vérifie si le fichier contient des lignes
-            if (rows.isEmpty()) {
-                throw new IOException("Le fichier CSV est vide.");
+        try (CsvRecordReader reader = new CsvRecordReader(fichier, '|')) {
+
+            String empreinte = ImportCheckpoint.empreinte(fichier);
+            ImportCheckpoint checkpoint = reprise ? engine.findCheckpoint(empreinte) : null;
+            if (checkpoint != null && checkpoint.isTermine()) {
+                System.out.println("Import déjà terminé pour ce fichier : " + checkpoint);
+                return;
+            }
+            if (checkpoint != null) {
+                // Reprise : lecture directement après le dernier lot validé
+                reader.seek(checkpoint.getOctetsLus(), checkpoint.getLignesLues());
+                System.out.println("Reprise de l'import après la ligne " + checkpoint.getLignesLues() + ".");
+            } else {
+                // Ignorer la première ligne (les en-têtes) et vérifie si le fichier contient des lignes
+                if (reader.readNext() == null) {
+                    throw new IOException("Le fichier CSV est vide.");
+                }
+                checkpoint = new ImportCheckpoint(empreinte, filePath);
+                checkpoint = checkpoint.avancer(reader.getPosition(), reader.getLinesRead(), 0, 0, 0, false);
+            }
+
+            if (!workers.isEmpty()) {
+                importParallel(reader, checkpoint);
+                return;
             }
 
-            // Ignorer la première ligne (les en-têtes)
-            rows.remove(0);
+            int tentatives = 0;
+            while (!checkpoint.isTermine()) {
+                // Démarrer une transaction
+                engine.begin();
+                try {
+                    checkpoint = importChunk(reader, checkpoint);
+                    tentatives = 0;
+                } catch (RuntimeException e) {
+                    if (!AdaptiveBatchController.isLockWait(e) || ++tentatives > MAX_TENTATIVES) {
+                        throw e;
+                    }
+                    // Attente de verrou : le lot est annulé puis relu depuis le dernier point de reprise
+                    engine.rollback();
+                    reader.seek(checkpoint.getOctetsLus(), checkpoint.getLignesLues());
+                    metrics.lotRejoue();
+                    System.out.println("Lot annulé sur une attente de verrou, reprise après la ligne "
+                            + checkpoint.getLignesLues() + " (tentative " + tentatives + ").");
+                    if (controller != null) {
+                        applyDecision(controller.onLockWait());
+                    }
+                }
+            }
 
-            // Démarrer une transaction
-            em.getTransaction().begin();
+        } catch (Exception e) {
+            // Si une erreur se produit, annule la transaction
+            engine.rollback();
+            throw new IOException("Erreur lors de l'importation du fichier CSV", e);
+        } finally {
+            engine.report(metrics);
+            workers.forEach(worker -> worker.report(metrics));
+            metrics.stop();
+            System.out.println("Import terminé : " + metrics);
+        }
+    }
 
-            for (int lineNumber = 0; lineNumber < rows.size(); lineNumber++) {
-                String[] columns = rows.get(lineNumber);
+    // Lit et écrit au plus chunkSize lignes, puis valide la transaction avec le point de reprise suivant
+    private ImportCheckpoint importChunk(CsvRecordReader reader, ImportCheckpoint checkpoint) throws IOException {
+        long debut = System.nanoTime();
+        long flushAvant = engine.getFlushNanos();
+        Lot lot = new Lot();
 
-                // Vérification du nombre de colonnes
-                if (columns.length < 30) {
-                    System.out.println("Ligne " + (lineNumber + 2) + " ignorée : pas assez de colonnes.");
-                    continue;
-                }
+        String[] columns = null;
+        while (lot.lignes < chunkSize && (columns = reader.readNext()) != null) {
+            long lineNumber = reader.getLinesRead();
+            lot.lignes++;
 
-                // Vérifie si la catégorie existe déjà
-                Categorie categorie = em.createQuery("SELECT c FROM Categorie c WHERE c.nom = :nom", Categorie.class)
-                        .setParameter("nom", columns[0])
-                        .getResultStream()
-                        .findFirst()
-                        .orElse(null);
+            LigneProduit ligne = parser.parse(lineNumber, columns);
+            if (ligne == null) {
+                lot.rejetees++;
+            } else {
+                write(engine, ligne, lot);
+            }
+        }
 
-                if (categorie == null) {
-                    // Si la catégorie n'existe pas, créez une nouvelle catégorie et la persister
-                    categorie = new Categorie(columns[0]);
-                    em.persist(categorie);
+        // Commit de la transaction, avec le point de reprise du lot
+        ImportCheckpoint suivant = checkpoint.avancer(reader.getPosition(), reader.getLinesRead(),
+                lot.inseres, lot.misAJour, lot.rejetees, columns == null);
+        engine.checkpoint(suivant);
+        long debutValidation = System.nanoTime();
+        engine.commit();
+        long fin = System.nanoTime();
+        metrics.ajouterLot(lot.lignes, lot.inseres, lot.misAJour, lot.rejetees);
 
-                }
-                // Vérifie si la marque existe déjà
-                Marque marque = em.createQuery("SELECT m FROM Marque m WHERE m.nom = :nom", Marque.class)
-                        .setParameter("nom", columns[1])
-                        .getResultStream()
-                        .findFirst()
-                        .orElse(null);
-
-                if (marque == null) {
-                    // Si la marque n'existe pas, crée une nouvelle marque
-                    marque = new Marque(columns[1]);
-                    em.persist(marque);
-                }
+        if (controller != null && !suivant.isTermine()) {
+            applyDecision(controller.onCommit(lot.lignes, fin - debut, engine.getFlushNanos() - flushAvant, fin - debutValidation));
+        }
+        return suivant;
+    }
 
-                    try {
-                    // Crée un produit et remplir ses champs
-                    Produit produit = new Produit();
-
-                    produit.setCategorie(new Categorie(columns[0]));
-                    produit.setMarque(new Marque(columns[1]));
-                    produit.setNom(columns[2]);
-                    // Vérifie si le produit existe déjà
-                    Produit existingProduit = em.createQuery(
-                                    "SELECT p FROM Produit p WHERE p.nom = :nom AND p.categorie = :categorie AND p.marque = :marque",
-                                    Produit.class)
-                            .setParameter("nom", columns[2])
-                            .setParameter("categorie", produit.getCategorie())
-                            .setParameter("marque", produit.getMarque())
-                            .getResultStream()
-                            .findFirst()
-                            .orElse(null);
-
-                    try {
-                        produit.setScoreNutritionnel(NutritionGradeFr.valueOf(columns[3].toUpperCase()));
-                    } catch (IllegalArgumentException | NullPointerException e) {
-                        System.out.println("Ligne " + (lineNumber + 2) + " ignorée : Score nutritionnel invalide (" + columns[3] + ").");
-                        continue;
-                    }
+    // Lit un lot et répartit ses lignes entre les moteurs parallèles, chacun les écrit dans sa propre transaction
+    private void importParallel(CsvRecordReader reader, ImportCheckpoint checkpoint) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            while (!checkpoint.isTermine()) {
+                checkpoint = importChunkParallel(executor, reader, checkpoint);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                    // Extrait les ingrédients
-                    List<Ingredient> ingredients = splitIngredients(columns[4]);
-                    produit.setIngredients(ingredients);
+    private ImportCheckpoint importChunkParallel(ExecutorService executor, CsvRecordReader reader, ImportCheckpoint checkpoint)
+            throws IOException, InterruptedException {
+        long debut = System.nanoTime();
+        Lot lot = new Lot();
+        List<List<LigneProduit>> partitions = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            partitions.add(new ArrayList<>());
+        }
 
-                    // Extrait les allergènes
-                    List<Allergene> allergens = splitAllergens(columns[28]);
-                    produit.setAllergenes(allergens);
+        String[] columns = null;
+        while (lot.lignes < chunkSize && (columns = reader.readNext()) != null) {
+            lot.lignes++;
+            LigneProduit ligne = parser.parse(reader.getLinesRead(), columns);
+            if (ligne == null) {
+                lot.rejetees++;
+            } else {
+                // Un même produit est toujours écrit par le même moteur : deux transactions ne peuvent pas l'insérer ensemble
+                int partition = Math.floorMod(Objects.hash(ligne.nom(), ligne.categorie().canonique(), ligne.marque().canonique()), workers.size());
+                partitions.get(partition).add(ligne);
+            }
+        }
 
-                    // Enregistre le produit dans la base de données
-                    em.persist(produit);
-                } catch (Exception e) {
-                    System.out.println("Erreur lors du traitement de la ligne " + (lineNumber + 2) + " : " + e.getMessage());
+        List<Future<Lot>> resultats = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            ImportEngine worker = workers.get(i);
+            List<LigneProduit> partition = partitions.get(i);
+            resultats.add(executor.submit(() -> writePartition(worker, partition)));
+        }
+        RuntimeException erreur = null;
+        long flushNanos = 0;
+        long validationNanos = 0;
+        long rejoues = 0;
+        for (Future<Lot> resultat : resultats) {
+            try {
+                Lot partiel = resultat.get();
+                lot.inseres += partiel.inseres;
+                lot.misAJour += partiel.misAJour;
+                lot.rejetees += partiel.rejetees;
+                flushNanos += partiel.flushNanos;
+                validationNanos = Math.max(validationNanos, partiel.validationNanos);
+                rejoues += partiel.rejoues;
+            } catch (ExecutionException e) {
+                // Les autres parties sont attendues : aucune transaction ne reste en cours à l'arrêt de l'import
+                if (erreur == null) {
+                    erreur = e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
                 }
             }
+        }
+        if (erreur != null) {
+            throw erreur;
+        }
 
-            // Commit de la transaction
-            em.getTransaction().commit();
+        // Toutes les parties du lot sont validées : le point de reprise peut avancer
+        ImportCheckpoint suivant = checkpoint.avancer(reader.getPosition(), reader.getLinesRead(),
+                lot.inseres, lot.misAJour, lot.rejetees, columns == null);
+        engine.begin();
+        engine.checkpoint(suivant);
+        engine.commit();
+        metrics.ajouterLot(lot.lignes, lot.inseres, lot.misAJour, lot.rejetees);
+        for (long i = 0; i < rejoues; i++) {
+            metrics.lotRejoue();
+        }
 
-        } catch (Exception e) {
-            // Si une erreur se produit, annule la transaction
-            if (em.getTransaction().isActive()) {
-                em.getTransaction().rollback();
-            }
-            throw new IOException("Erreur lors de l'importation du fichier CSV", e);
+        if (controller != null && rejoues > 0) {
+            applyDecision(controller.onLockWait());
+        } else if (controller != null && !suivant.isTermine()) {
+            applyDecision(controller.onCommit(lot.lignes, System.nanoTime() - debut, flushNanos / workers.size(), validationNanos));
         }
+        return suivant;
     }
 
-    // Méthode pour découper les ingrédients
-    private List<Ingredient> splitIngredients(String ingredientsColumn) {
-        // On découpe la chaîne par les séparateurs ",", ":", "et"
-        String[] ingredientsArray = ingredientsColumn.split("[,;:et]+");
+    // Écrit une partie d'un lot sur le thread d'un moteur parallèle, en comptant les octets alloués par ce thread
+    private Lot writePartition(ImportEngine worker, List<LigneProduit> lignes) {
+        long octetsAvant = ImportMetrics.octetsAllouesThread();
+        try {
+            return writePartitionWithRetry(worker, lignes);
+        } finally {
+            metrics.ajouterOctetsAlloues(ImportMetrics.octetsAllouesThread() - octetsAvant);
+        }
+    }
 
-        List<Ingredient> ingredientsList = new ArrayList<>();
+    // Écrit une partie d'un lot dans sa propre transaction, rejouée en cas d'attente de verrou
+    private Lot writePartitionWithRetry(ImportEngine worker, List<LigneProduit> lignes) {
+        for (int tentative = 1; ; tentative++) {
+            Lot lot = new Lot();
+            long flushAvant = worker.getFlushNanos();
+            worker.begin();
+            try {
+                for (LigneProduit ligne : lignes) {
+                    write(worker, ligne, lot);
+                }
+                long debutValidation = System.nanoTime();
+                worker.commit();
+                lot.validationNanos = System.nanoTime() - debutValidation;
+                lot.flushNanos = worker.getFlushNanos() - flushAvant;
+                lot.rejoues = tentative - 1;
+                return lot;
+            } catch (RuntimeException e) {
+                worker.rollback();
+                if (!AdaptiveBatchController.isLockWait(e) || tentative > MAX_TENTATIVES) {
+                    throw e;
+                }
+                System.out.println("Partie de lot annulée sur une attente de verrou (tentative " + tentative + ").");
+            }
+        }
+    }
 
-        for (String ingredient : ingredientsArray) {
-            String trimmedIngredient = ingredient.trim(); // Supprime les espaces superflus autour de l'ingrédient
-            if (!trimmedIngredient.isEmpty()) { // Vérifie que l'ingrédient n'est pas vide
-                ingredientsList.add(new Ingredient(trimmedIngredient)); // Ajoute l'ingrédient à la liste
+    private void write(ImportEngine engine, LigneProduit ligne, Lot lot) {
+        try {
+            // Enregistre le produit et ses associations dans la base de données
+            if (engine.write(ligne)) {
+                lot.inseres++;
+            } else {
+                lot.misAJour++;
+            }
+        } catch (ImportEngine.BatchFailedException e) {
+            // Le lot entier est perdu : l'import est interrompu
+            throw e;
+        } catch (RuntimeException e) {
+            if (AdaptiveBatchController.isLockWait(e)) {
+                // La transaction est compromise : le lot doit être rejoué
+                throw e;
             }
+            lot.rejetees++;
+            System.out.println("Erreur lors du traitement de la ligne " + ligne.numeroLigne() + " : " + e.getMessage());
         }
+    }
 
-        return ingredientsList;
+    // Le contrôleur change une taille à presque chaque lot : les décisions sont gardées dans les métriques,
+    // résumées en fin d'import, plutôt qu'affichées une à une
+    private void applyDecision(AdaptiveBatchController.Decision decision) {
+        metrics.ajouterDecision(decision);
+        chunkSize = decision.chunkSize();
+        engine.setBatchSize(decision.batchSize());
+        workers.forEach(worker -> worker.setBatchSize(decision.batchSize()));
     }
 
-    // Méthode pour découper les allergènes
-    private List<Allergene> splitAllergens(String allergensColumn) {
-        // On découpe la chaîne par les séparateurs ",", ";", "-"
-        String[] allergensArray = allergensColumn.split("[,;\\-]+");
+    /**
+     * Active l'ajustement automatique de la taille des lots JDBC et du nombre de lignes par transaction
+     * @param controller le contrôleur à utiliser, ou {@code null} pour garder des tailles fixes
+     */
+    public void setAdaptiveController(AdaptiveBatchController controller) {
+        this.controller = controller;
+        if (controller != null) {
+            chunkSize = controller.getChunkSize();
+            engine.setBatchSize(controller.getBatchSize());
+            workers.forEach(worker -> worker.setBatchSize(controller.getBatchSize()));
+        }
+    }
 
-        List<Allergene> allergenesList = new ArrayList<>();
+    /**
+     * Fait résoudre les entités de référence par les dictionnaires d'une première passe, voir {@link ReferenceDictionary}
+     * @param dictionnaire les dictionnaires, construits avec le normaliseur de cet import ({@link #getNormalizer()}),
+     *                     ou {@code null} pour créer les références au fil de l'import
+     */
+    public void setReferences(ReferenceDictionary dictionnaire) {
+        this.dictionnaire = dictionnaire;
+        engine.setReferences(dictionnaire);
+        workers.forEach(worker -> worker.setReferences(dictionnaire));
+    }
 
-        for (String allergene : allergensArray) {
-            String trimmedAllergene = allergene.trim(); // Supprime les espaces superflus autour de l'allergène
-            if (!trimmedAllergene.isEmpty()) { // Vérifie que l'allergène n'est pas vide
-                allergenesList.add(new Allergene(trimmedAllergene)); // Ajoute l'allergène à la liste
+    /**
+     * Fait écrire les produits par plusieurs moteurs en parallèle, chacun dans son propre thread
+     * <p>Nécessite les dictionnaires de la première passe : les moteurs parallèles n'écrivent pas dans les tables de référence.
+     * Le moteur principal n'enregistre plus que les points de reprise. Les moteurs restent à fermer par l'appelant.</p>
+     * <p>Chaque moteur écrit sa propre partie des compteurs du catalogue, numérotée à partir de 1 dans l'ordre de la liste.</p>
+     * <p>Si l'import est interrompu, les parties déjà validées du dernier lot sont relues à la reprise
+     * et comptées comme des mises à jour.</p>
+     * @param workers les moteurs, vide pour un import séquentiel
+     */
+    public void setWorkers(List<ImportEngine> workers) {
+        this.workers = List.copyOf(workers);
+        for (int i = 0; i < this.workers.size(); i++) {
+            ImportEngine worker = this.workers.get(i);
+            worker.setReferences(dictionnaire);
+            worker.setPartieCompteurs(i + 1);
+            if (controller != null) {
+                worker.setBatchSize(controller.getBatchSize());
             }
         }
+    }
+
+    /**
+     * Permet d'obtenir le normaliseur des noms de cet import, à partager avec la première passe
+     * @return le normaliseur
+     */
+    public NameNormalizer getNormalizer() {
+        return parser.getNormalizer();
+    }
+
+    /**
+     * Permet de définir le nombre de lignes lues par transaction
+     * @param chunkSize le nombre de lignes par lot validé
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("La taille des lots doit être positive : " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Permet d'obtenir les métriques du dernier import
+     * @return les métriques
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
 
-        return allergenesList;
+    // Compteurs du lot en cours, reportés dans le point de reprise à sa validation
+    private static final class Lot {
+        long lignes;
+        long inseres;
+        long misAJour;
+        long rejetees;
+        long flushNanos;
+        long validationNanos;
+        long rejoues;
     }
 
 }
@@ -0,0 +1,139 @@
+package fr.yuka_projet;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.exceptions.CsvMalformedLineException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Lecteur d'enregistrements CSV qui connaît la position en octets de chaque enregistrement
+ * <p>Le découpage des champs est confié au parseur opencsv, comme pour {@code CSVReader}, y compris pour
+ * les champs entre guillemets sur plusieurs lignes. Après chaque enregistrement, {@link #getPosition()} donne l'octet
+ * où commence le suivant : {@link #seek(long, long)} permet d'y reprendre la lecture sans relire le début du fichier.</p>
+ * <p>Le fichier est lu en UTF-8.</p>
+ */
+class CsvRecordReader implements Closeable {
+
+    private final FileChannel canal;
+    private final CSVParser parser;
+    private final ByteBuffer tampon = ByteBuffer.allocate(1 << 16);
+    private byte[] ligne = new byte[1024];
+    private long position;
+    private long lignesLues;
+
+    /**
+     * Ouvre le fichier au début
+     * @param fichier le fichier CSV
+     * @param separateur le séparateur de champs
+     * @throws IOException si le fichier ne peut pas être ouvert
+     */
+    CsvRecordReader(Path fichier, char separateur) throws IOException {
+        this.canal = FileChannel.open(fichier, StandardOpenOption.READ);
+        this.parser = new CSVParserBuilder().withSeparator(separateur).build();
+        tampon.limit(0);
+    }
+
+    /**
+     * Reprend la lecture à une position obtenue par {@link #getPosition()}
+     * @param position la position en octets d'un début d'enregistrement
+     * @param lignesLues le nombre de lignes lues avant cette position, pour la numérotation des lignes
+     * @throws IOException en cas d'erreur de lecture
+     */
+    void seek(long position, long lignesLues) throws IOException {
+        canal.position(position);
+        tampon.limit(0);
+        this.position = position;
+        this.lignesLues = lignesLues;
+    }
+
+    /**
+     * Lit l'enregistrement suivant
+     * @return les champs de l'enregistrement, ou {@code null} en fin de fichier
+     * @throws CsvMalformedLineException si le fichier se termine dans un champ entre guillemets, fichier tronqué ou corrompu
+     * @throws IOException en cas d'erreur de lecture
+     */
+    String[] readNext() throws IOException {
+        String[] resultat = null;
+        long premiereLigne = lignesLues + 1;
+        do {
+            String texte = readLine();
+            if (texte == null) {
+                if (resultat != null) {
+                    // Levée avant la validation du lot : le point de reprise reste au début du lot en cours
+                    throw new CsvMalformedLineException("Fin de fichier dans un champ entre guillemets ouvert ligne "
+                            + premiereLigne + " : fichier tronqué ou guillemet non fermé", premiereLigne, resultat[resultat.length - 1]);
+                }
+                return null;
+            }
+            String[] champs = parser.parseLineMulti(texte);
+            if (resultat == null) {
+                resultat = champs;
+            } else if (champs.length > 0) {
+                resultat = Arrays.copyOf(resultat, resultat.length + champs.length);
+                System.arraycopy(champs, 0, resultat, resultat.length - champs.length, champs.length);
+            }
+        } while (parser.isPending());
+        return resultat;
+    }
+
+    /**
+     * Permet d'obtenir la position du prochain enregistrement
+     * @return la position en octets depuis le début du fichier
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lignes physiques lues depuis le début du fichier
+     * @return le numéro de la dernière ligne lue
+     */
+    long getLinesRead() {
+        return lignesLues;
+    }
+
+    private String readLine() throws IOException {
+        int longueur = 0;
+        boolean lu = false;
+        while (true) {
+            if (!tampon.hasRemaining()) {
+                tampon.clear();
+                int n = canal.read(tampon);
+                tampon.flip();
+                if (n <= 0) {
+                    break;
+                }
+            }
+            lu = true;
+            byte octet = tampon.get();
+            position++;
+            if (octet == '\n') {
+                break;
+            }
+            if (longueur == ligne.length) {
+                ligne = Arrays.copyOf(ligne, longueur * 2);
+            }
+            ligne[longueur++] = octet;
+        }
+        if (!lu) {
+            return null;
+        }
+        lignesLues++;
+        if (longueur > 0 && ligne[longueur - 1] == '\r') {
+            longueur--;
+        }
+        return new String(ligne, 0, longueur, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+}
@@ -0,0 +1,149 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.FlushModeType;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Moteur d'import basé sur l'{@code EntityManager} JPA
+ * <p>Chaque entité écrite passe par le contexte de persistance. Il est vidé après chaque lot
+ * pour que la mémoire occupée ne dépende pas de la taille du fichier.</p>
+ */
+public class EntityManagerImportEngine extends AbstractImportEngine {
+
+    private final EntityManager em;
+    private final boolean proprietaire;
+
+    /**
+     * Constructeur avec EntityManager, qui reste ouvert à la fermeture du moteur
+     * @param em l'EntityManager
+     */
+    public EntityManagerImportEngine(EntityManager em) {
+        this(em, false);
+    }
+
+    EntityManagerImportEngine(EntityManager em, boolean proprietaire) {
+        super(em.getEntityManagerFactory().unwrap(SessionFactory.class), DEFAULT_BATCH_SIZE);
+        this.em = em;
+        this.proprietaire = proprietaire;
+    }
+
+    @Override
+    public void begin() {
+        em.getTransaction().begin();
+    }
+
+    @Override
+    public ImportCheckpoint findCheckpoint(String empreinte) {
+        return em.find(ImportCheckpoint.class, empreinte);
+    }
+
+    @Override
+    public void checkpoint(ImportCheckpoint checkpoint) {
+        em.merge(checkpoint);
+    }
+
+    @Override
+    protected <T> T findReference(Class<T> type, String nomCanonique) {
+        return em.createQuery("SELECT e FROM " + type.getSimpleName() + " e WHERE e.nomCanonique = :nom", type)
+                .setParameter("nom", nomCanonique)
+                .setFlushMode(FlushModeType.COMMIT)
+                .getResultStream()
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Override
+    protected <T> T reference(Class<T> type, long id) {
+        return em.getReference(type, id);
+    }
+
+    @Override
+    protected void insertReference(Object entite) {
+        em.persist(entite);
+    }
+
+    @Override
+    protected ProduitExistant findProduit(CleProduit cle) {
+        // Les produits du lot courant sont suivis par le moteur : inutile de forcer un flush avant la requête
+        return em.createQuery(
+                        "SELECT p.id FROM Produit p WHERE p.nom = :nom AND p.categorie.id = :categorie AND p.marque.id = :marque",
+                        Long.class)
+                .setParameter("nom", cle.nom())
+                .setParameter("categorie", cle.categorieId())
+                .setParameter("marque", cle.marqueId())
+                .setFlushMode(FlushModeType.COMMIT)
+                .getResultStream()
+                .findFirst()
+                // Le score et le masque sont lus sur l'entité gérée, qui porte les mises à jour du lot pas encore envoyées
+                .map(id -> {
+                    Produit produit = em.find(Produit.class, id);
+                    return new ProduitExistant(id, produit.getScoreNutritionnel(), produit.getAllergenesMasque());
+                })
+                .orElse(null);
+    }
+
+    @Override
+    protected Integer plusGrandBitAllergene() {
+        // Les allergènes sont insérés immédiatement (identité) : inutile de forcer un flush avant la requête
+        return em.createQuery("SELECT MAX(a.bit) FROM Allergene a", Integer.class)
+                .setFlushMode(FlushModeType.COMMIT)
+                .getSingleResult();
+    }
+
+    @Override
+    protected long insertProduit(Produit produit) {
+        em.persist(produit);
+        return produit.getId_produit();
+    }
+
+    @Override
+    protected void updateProduit(long id, NutritionGradeFr scoreNutritionnel, long allergenesMasque) {
+        Produit produit = em.find(Produit.class, id);
+        produit.setScoreNutritionnel(scoreNutritionnel);
+        produit.setAllergenesMasque(allergenesMasque);
+    }
+
+    @Override
+    protected void flushProduits() {
+        em.flush();
+    }
+
+    @Override
+    protected void applyJdbcBatchSize(int batchSize) {
+        em.unwrap(Session.class).setJdbcBatchSize(batchSize);
+    }
+
+    @Override
+    protected void doWork(Work work) {
+        em.unwrap(Session.class).doWork(work);
+    }
+
+    @Override
+    protected void afterFlush() {
+        em.clear();
+    }
+
+    @Override
+    protected void commitTransaction() {
+        em.getTransaction().commit();
+    }
+
+    @Override
+    protected void rollbackTransaction() {
+        if (em.getTransaction().isActive()) {
+            em.getTransaction().rollback();
+        }
+        // Les entités du lot annulé ne doivent pas être reprises par la transaction suivante
+        em.clear();
+    }
+
+    @Override
+    public void close() {
+        if (proprietaire && em.isOpen()) {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Compare les moteurs d'import sur un même fichier : débit et pression sur le ramasse-miettes
+ * <p>Chaque import part d'une base vide : le schéma de l'unité de persistance "food" est recréé à chaque ouverture.
+ * L'affichage des requêtes SQL est désactivé pour ne mesurer que l'import.</p>
+ * <p>Sans fichier en argument, un fichier de {@value #LIGNES_GENEREES} lignes est généré par {@link OffDatasetGenerator}
+ * dans le dossier temporaire.</p>
+ * <p>Des imports de chauffe, non mesurés, laissent d'abord le JIT compiler le code des deux moteurs et remplissent
+ * le cache de la base. Chaque moteur est ensuite mesuré plusieurs fois, en alternant l'ordre des moteurs d'un tour
+ * à l'autre pour qu'aucun ne profite systématiquement de passer en second. Le tableau donne la médiane et l'étendue.</p>
+ */
+public class ImportBenchmark {
+
+    // Taille du fichier généré quand aucun fichier n'est donné
+    private static final long LIGNES_GENEREES = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        // Arguments : [fichier.csv] [--warmup n] [--repetitions n]
+        String cheminCsv = null;
+        int chauffe = 1;
+        int repetitions = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup" -> chauffe = Integer.parseInt(args[++i]);
+                case "--repetitions" -> repetitions = Integer.parseInt(args[++i]);
+                default -> cheminCsv = args[i];
+            }
+        }
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Au moins une répétition est nécessaire : " + repetitions);
+        }
+        if (cheminCsv == null) {
+            cheminCsv = OffDatasetGenerator.generateTemporaire(LIGNES_GENEREES).toString();
+            System.out.println("Aucun fichier donné, " + LIGNES_GENEREES + " lignes générées dans " + cheminCsv);
+        }
+
+        List<ImportEngine.Type> ordre = new ArrayList<>(List.of(ImportEngine.Type.values()));
+        for (int tour = 0; tour < chauffe; tour++) {
+            for (ImportEngine.Type type : ordre) {
+                System.out.println("Chauffe " + (tour + 1) + "/" + chauffe + " : " + type);
+                run(type, cheminCsv);
+            }
+            Collections.reverse(ordre);
+        }
+
+        Map<ImportEngine.Type, List<ImportMetrics>> resultats = new EnumMap<>(ImportEngine.Type.class);
+        for (int tour = 0; tour < repetitions; tour++) {
+            for (ImportEngine.Type type : ordre) {
+                System.out.println("Mesure " + (tour + 1) + "/" + repetitions + " : " + type);
+                resultats.computeIfAbsent(type, t -> new ArrayList<>()).add(run(type, cheminCsv));
+            }
+            Collections.reverse(ordre);
+        }
+
+        System.out.printf("%-16s %12s %24s %16s %14s %10s %14s%n",
+                "moteur", "durée (ms)", "lignes/s [min - max]", "SQL par produit", "collections GC", "GC (ms)", "alloué (Mo)");
+        resultats.forEach((type, mesures) -> System.out.printf("%-16s %12.0f %10.0f [%.0f - %.0f] %16.2f %14.0f %10.0f %14.0f%n",
+                type, mediane(mesures, ImportMetrics::getDureeMs), mediane(mesures, ImportMetrics::getLignesParSeconde),
+                min(mesures, ImportMetrics::getLignesParSeconde), max(mesures, ImportMetrics::getLignesParSeconde),
+                mediane(mesures, ImportMetrics::getInstructionsParProduit), mediane(mesures, ImportMetrics::getGcCollections),
+                mediane(mesures, ImportMetrics::getGcTempsMs), mediane(mesures, m -> m.getOctetsAlloues() >> 20)));
+    }
+
+    // Un import complet du fichier dans une base recréée
+    private static ImportMetrics run(ImportEngine.Type type, String cheminCsv) throws IOException {
+        EntityManagerFactory dbFactory = Persistence.createEntityManagerFactory("food", Map.of("hibernate.show_sql", "false",
+                "jakarta.persistence.schema-generation.database.action", "drop-and-create"));
+        try (ImportEngine engine = type.open(dbFactory)) {
+            System.gc();
+            CsvImporterFood importer = new CsvImporterFood(engine);
+            importer.importCSVToDatabase(cheminCsv);
+            return importer.getMetrics();
+        } finally {
+            dbFactory.close();
+        }
+    }
+
+    private static double[] valeurs(List<ImportMetrics> mesures, ToDoubleFunction<ImportMetrics> mesure) {
+        double[] valeurs = mesures.stream().mapToDouble(mesure).toArray();
+        Arrays.sort(valeurs);
+        return valeurs;
+    }
+
+    private static double mediane(List<ImportMetrics> mesures, ToDoubleFunction<ImportMetrics> mesure) {
+        double[] valeurs = valeurs(mesures, mesure);
+        int milieu = valeurs.length / 2;
+        return valeurs.length % 2 == 1 ? valeurs[milieu] : (valeurs[milieu - 1] + valeurs[milieu]) / 2;
+    }
+
+    private static double min(List<ImportMetrics> mesures, ToDoubleFunction<ImportMetrics> mesure) {
+        return valeurs(mesures, mesure)[0];
+    }
+
+    private static double max(List<ImportMetrics> mesures, ToDoubleFunction<ImportMetrics> mesure) {
+        double[] valeurs = valeurs(mesures, mesure);
+        return valeurs[valeurs.length - 1];
+    }
+}
@@ -0,0 +1,214 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+
+/**
+ * Représente le point de reprise d'un import, enregistré dans la même transaction que chaque lot validé
+ * <p>Cette classe est annotée avec {@code @Entity} pour indiquer qu'il s'agit d'une entité JPA.</p>
+ * <p>Elle est également annotée avec {@code @Table(name="import_checkpoint")} pour spécifier le nom de la table correspondante dans la base de données.</p>
+ * <p>Un import interrompu peut ainsi reprendre directement à la position du dernier lot validé, sans relire ni réinsérer les lignes précédentes.</p>
+ */
+@Entity
+@Table(name="import_checkpoint")
+public class ImportCheckpoint {
+
+    // Taille des zones lues au début et à la fin du fichier pour calculer l'empreinte
+    private static final int TAILLE_ECHANTILLON = 1 << 20;
+
+    /**
+     * L'empreinte du fichier importé - la clé primaire
+     * <p>Elle combine la taille du fichier et un SHA-256 de son premier et de son dernier mégaoctet :
+     * un fichier modifié ou complété ne reprend pas le point de reprise d'un autre.</p>
+     */
+    @Id
+    @Column(name="empreinte", length = 80)
+    private String empreinte;
+
+    /**
+     * Le chemin du fichier lors du dernier import, à titre d'information
+     */
+    @Column(name="fichier", length = 1024)
+    private String fichier;
+
+    /**
+     * La position en octets du premier enregistrement non encore validé
+     */
+    @Column(name="octets_lus", nullable = false)
+    private long octetsLus;
+
+    /**
+     * Le nombre de lignes physiques lues jusqu'à cette position
+     */
+    @Column(name="lignes_lues", nullable = false)
+    private long lignesLues;
+
+    /**
+     * Les compteurs cumulés depuis le début de l'import
+     */
+    @Column(name="produits_inseres", nullable = false)
+    private long produitsInseres;
+
+    @Column(name="produits_mis_a_jour", nullable = false)
+    private long produitsMisAJour;
+
+    @Column(name="lignes_rejetees", nullable = false)
+    private long lignesRejetees;
+
+    /**
+     * Indique que le fichier a été entièrement importé
+     */
+    @Column(name="termine", nullable = false)
+    private boolean termine;
+
+    /**
+     * La date du dernier lot validé
+     */
+    @Column(name="date_maj")
+    private LocalDateTime dateMaj;
+
+    /**
+     * Un bean entité doit obligatoirement avoir un constructeur sans paramètre pour le jpa
+     */
+    public ImportCheckpoint() {
+
+    }
+
+    /**
+     * Constructeur de la classe ImportCheckpoint, pour un import qui commence
+     * @param empreinte l'empreinte du fichier, voir {@link #empreinte(Path)}
+     * @param fichier le chemin du fichier
+     */
+    public ImportCheckpoint(String empreinte, String fichier) {
+        this.empreinte = empreinte;
+        this.fichier = fichier;
+    }
+
+    /**
+     * Calcule l'empreinte d'un fichier sans le lire en entier
+     * @param fichier le fichier à importer
+     * @return l'empreinte, utilisée comme identifiant du point de reprise
+     * @throws IOException si le fichier ne peut pas être lu
+     */
+    public static String empreinte(Path fichier) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            long taille = canal.size();
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            ByteBuffer tampon = ByteBuffer.allocate(TAILLE_ECHANTILLON);
+            for (long debut : new long[]{0, Math.max(0, taille - TAILLE_ECHANTILLON)}) {
+                tampon.clear();
+                int lus;
+                do {
+                    lus = canal.read(tampon, debut + tampon.position());
+                } while (lus > 0 && tampon.hasRemaining());
+                tampon.flip();
+                sha256.update(tampon);
+            }
+            return taille + "-" + HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calcule le point de reprise qui suit un lot
+     * <p>Le point de reprise courant n'est pas modifié : si la validation du lot échoue,
+     * il désigne toujours la position du dernier lot validé.</p>
+     * @param octetsLus la position du premier enregistrement non encore validé
+     * @param lignesLues le nombre de lignes lues jusqu'à cette position
+     * @param produitsInseres le nombre de produits insérés par le lot
+     * @param produitsMisAJour le nombre de produits mis à jour par le lot
+     * @param lignesRejetees le nombre de lignes rejetées par le lot
+     * @param termine {@code true} si le lot est le dernier du fichier
+     * @return le nouveau point de reprise
+     */
+    public ImportCheckpoint avancer(long octetsLus, long lignesLues, long produitsInseres, long produitsMisAJour,
+                                    long lignesRejetees, boolean termine) {
+        ImportCheckpoint suivant = new ImportCheckpoint(empreinte, fichier);
+        suivant.octetsLus = octetsLus;
+        suivant.lignesLues = lignesLues;
+        suivant.produitsInseres = this.produitsInseres + produitsInseres;
+        suivant.produitsMisAJour = this.produitsMisAJour + produitsMisAJour;
+        suivant.lignesRejetees = this.lignesRejetees + lignesRejetees;
+        suivant.termine = termine;
+        suivant.dateMaj = LocalDateTime.now();
+        return suivant;
+    }
+
+    /**
+     * Permet d'obtenir l'empreinte du fichier
+     * @return l'empreinte
+     */
+    public String getEmpreinte() {
+        return empreinte;
+    }
+
+    /**
+     * Permet d'obtenir le chemin du fichier
+     * @return le chemin
+     */
+    public String getFichier() {
+        return fichier;
+    }
+
+    /**
+     * Permet d'obtenir la position de reprise
+     * @return la position en octets
+     */
+    public long getOctetsLus() {
+        return octetsLus;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lignes lues avant la position de reprise
+     * @return le nombre de lignes
+     */
+    public long getLignesLues() {
+        return lignesLues;
+    }
+
+    public long getProduitsInseres() {
+        return produitsInseres;
+    }
+
+    public long getProduitsMisAJour() {
+        return produitsMisAJour;
+    }
+
+    public long getLignesRejetees() {
+        return lignesRejetees;
+    }
+
+    /**
+     * Indique si le fichier a été entièrement importé
+     * @return {@code true} si l'import est terminé
+     */
+    public boolean isTermine() {
+        return termine;
+    }
+
+    /**
+     * Retourne une représentation sous forme de chaîne de caractères de l'objet ImportCheckpoint
+     * @return Une chaîne de caractères représentant l'objet ImportCheckpoint
+     */
+    @Override
+    public String toString() {
+        return "ImportCheckpoint{" +
+                "fichier='" + fichier + '\'' +
+                ", octetsLus=" + octetsLus +
+                ", lignesLues=" + lignesLues +
+                ", produitsInseres=" + produitsInseres +
+                ", produitsMisAJour=" + produitsMisAJour +
+                ", lignesRejetees=" + lignesRejetees +
+                ", termine=" + termine +
+                '}';
+    }
+}
@@ -0,0 +1,137 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.util.Locale;
+import org.hibernate.SessionFactory;
+
+/**
+ * Moteur d'écriture utilisé par {@link CsvImporterFood}
+ * <p>Le moteur résout les catégories, marques, ingrédients et allergènes, insère ou met à jour les produits
+ * et écrit leurs associations, dans la transaction qu'il gère.</p>
+ */
+public interface ImportEngine extends AutoCloseable {
+
+    /**
+     * Démarre une transaction
+     */
+    void begin();
+
+    /**
+     * Écrit un produit et ses associations dans la transaction courante
+     * @param ligne la ligne à écrire
+     * @return {@code true} si le produit a été inséré, {@code false} s'il existait déjà et a été mis à jour
+     */
+    boolean write(LigneProduit ligne);
+
+    /**
+     * Recherche le point de reprise d'un fichier
+     * @param empreinte l'empreinte du fichier
+     * @return le point de reprise, ou {@code null} si ce fichier n'a jamais été importé
+     */
+    ImportCheckpoint findCheckpoint(String empreinte);
+
+    /**
+     * Enregistre le point de reprise dans la transaction courante, il sera validé avec le lot
+     * @param checkpoint le point de reprise
+     */
+    void checkpoint(ImportCheckpoint checkpoint);
+
+    /**
+     * Écrit ce qui est encore en attente et valide la transaction courante
+     */
+    void commit();
+
+    /**
+     * Annule la transaction courante si elle est active
+     */
+    void rollback();
+
+    /**
+     * Fait résoudre les catégories, marques, ingrédients et allergènes par des dictionnaires chargés à l'avance
+     * <p>Le moteur n'écrit alors plus dans les tables de référence : une ligne dont un nom est absent des dictionnaires est rejetée.</p>
+     * @param dictionnaire les dictionnaires de la première passe, ou {@code null} pour créer les références au fil de l'import
+     */
+    void setReferences(ReferenceDictionary dictionnaire);
+
+    /**
+     * Permet de définir le nombre de produits envoyés par lot JDBC, y compris en cours d'import
+     * @param batchSize le nombre de produits par lot
+     */
+    void setBatchSize(int batchSize);
+
+    /**
+     * Permet de choisir la partie des compteurs du catalogue ({@link AgregatCatalogue}) écrite par ce moteur
+     * <p>Chaque moteur parallèle d'un import écrit sa propre partie, pour que leurs transactions ne verrouillent pas les mêmes compteurs.</p>
+     * @param partie la partie, 0 pour un import séquentiel
+     */
+    void setPartieCompteurs(int partie);
+
+    /**
+     * Permet d'obtenir le temps cumulé passé à envoyer les lots à la base
+     * @return la durée en nanosecondes depuis l'ouverture du moteur
+     */
+    long getFlushNanos();
+
+    /**
+     * Reporte dans les métriques les compteurs propres au moteur
+     * @param metrics les métriques de l'import
+     */
+    void report(ImportMetrics metrics);
+
+    /**
+     * Libère la session ou l'EntityManager ouvert par le moteur
+     */
+    @Override
+    void close();
+
+    /**
+     * Échec de l'envoi d'un lot à la base : contrairement à une erreur sur une ligne, la transaction n'est plus utilisable
+     */
+    class BatchFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructeur de la classe BatchFailedException
+         * @param cause l'erreur levée pendant l'envoi du lot
+         */
+        public BatchFailedException(Throwable cause) {
+            super("Échec de l'écriture d'un lot de produits : " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Les moteurs disponibles, sélectionnables à l'exécution
+     */
+    enum Type {
+        /**
+         * Moteur basé sur l'{@code EntityManager} JPA et son contexte de persistance
+         */
+        ENTITY_MANAGER,
+        /**
+         * Moteur basé sur la {@code StatelessSession} Hibernate, sans contexte de persistance
+         */
+        STATELESS;
+
+        /**
+         * Ouvre un moteur de ce type
+         * @param factory la fabrique de l'unité de persistance
+         * @return le moteur, à fermer après usage
+         */
+        public ImportEngine open(EntityManagerFactory factory) {
+            return switch (this) {
+                case ENTITY_MANAGER -> new EntityManagerImportEngine(factory.createEntityManager(), true);
+                case STATELESS -> new StatelessImportEngine(factory.unwrap(SessionFactory.class));
+            };
+        }
+
+        /**
+         * Retrouve un type à partir de son nom en ligne de commande, par exemple {@code stateless} ou {@code entity-manager}
+         * @param nom le nom du moteur
+         * @return le type correspondant
+         */
+        public static Type parse(String nom) {
+            return valueOf(nom.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package fr.yuka_projet;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métriques d'un import : volumes, débit et pression sur le ramasse-miettes
+ * <p>Les compteurs du ramasse-miettes couvrent toute la JVM entre {@link #start()} et {@link #stop()},
+ * les octets alloués sont ceux du thread qui exécute l'import et, en import parallèle, ceux des threads des moteurs
+ * pendant l'écriture de leurs parties de lot.</p>
+ * <p>Les volumes ne comptent que les lots validés : un lot annulé puis rejoué n'est compté qu'une fois.</p>
+ */
+public class ImportMetrics {
+
+    private long debut;
+    private long duree;
+    private long gcCollections;
+    private long gcTemps;
+    private long octetsAlloues;
+    private final LongAdder octetsAllouesWorkers = new LongAdder();
+
+    private long lignesLues;
+    private long produitsInseres;
+    private long produitsMisAJour;
+    private long lignesRejetees;
+    private long lignesAssociations;
+    private long instructionsAssociations;
+    private long instructionsHibernate;
+    private long lotsRejoues;
+    private final List<AdaptiveBatchController.Decision> decisions = new ArrayList<>();
+
+    /**
+     * Démarre la mesure
+     */
+    public void start() {
+        debut = System.nanoTime();
+        gcCollections = -totalGcCollections();
+        gcTemps = -totalGcTemps();
+        octetsAlloues = -octetsAllouesThread();
+        octetsAllouesWorkers.reset();
+    }
+
+    /**
+     * Termine la mesure
+     */
+    public void stop() {
+        duree = System.nanoTime() - debut;
+        gcCollections += totalGcCollections();
+        gcTemps += totalGcTemps();
+        octetsAlloues += octetsAllouesThread();
+    }
+
+    private static long totalGcCollections() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(n -> n > 0).sum();
+    }
+
+    private static long totalGcTemps() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(n -> n > 0).sum();
+    }
+
+    // Octets alloués jusqu'ici par le thread courant
+    static long octetsAllouesThread() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    // Appelée par les threads des moteurs parallèles, en plus du thread de l'import
+    void ajouterOctetsAlloues(long octets) {
+        octetsAllouesWorkers.add(octets);
+    }
+
+    void ajouterLot(long lignes, long inseres, long misAJour, long rejetees) {
+        lignesLues += lignes;
+        produitsInseres += inseres;
+        produitsMisAJour += misAJour;
+        lignesRejetees += rejetees;
+    }
+
+    void lotRejoue() {
+        lotsRejoues++;
+    }
+
+    void ajouterDecision(AdaptiveBatchController.Decision decision) {
+        decisions.add(decision);
+    }
+
+    void ajouterAssociations(long lignes, long instructions) {
+        lignesAssociations += lignes;
+        instructionsAssociations += instructions;
+    }
+
+    // Les moteurs d'un import partagent la même fabrique de sessions, donc le même compteur : le plus grand relevé est conservé
+    void setInstructionsHibernate(long instructions) {
+        instructionsHibernate = Math.max(instructionsHibernate, instructions);
+    }
+
+    public long getLignesLues() {
+        return lignesLues;
+    }
+
+    public long getProduitsInseres() {
+        return produitsInseres;
+    }
+
+    public long getProduitsMisAJour() {
+        return produitsMisAJour;
+    }
+
+    public long getLignesRejetees() {
+        return lignesRejetees;
+    }
+
+    public long getLignesAssociations() {
+        return lignesAssociations;
+    }
+
+    public long getInstructionsAssociations() {
+        return instructionsAssociations;
+    }
+
+    public long getInstructionsHibernate() {
+        return instructionsHibernate;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de lots annulés sur une attente de verrou puis rejoués
+     * @return le nombre de lots rejoués
+     */
+    public long getLotsRejoues() {
+        return lotsRejoues;
+    }
+
+    /**
+     * Permet d'obtenir les décisions du contrôleur de taille des lots, dans l'ordre où elles ont été prises
+     * @return les décisions, vide si l'import n'était pas adaptatif
+     */
+    public List<AdaptiveBatchController.Decision> getDecisions() {
+        return Collections.unmodifiableList(decisions);
+    }
+
+    /**
+     * Permet d'obtenir le nombre moyen d'instructions SQL par produit écrit, associations comprises
+     * @return le nombre d'instructions par produit inséré ou mis à jour
+     */
+    public double getInstructionsParProduit() {
+        long produits = produitsInseres + produitsMisAJour;
+        return produits == 0 ? 0 : (double) (instructionsHibernate + instructionsAssociations) / produits;
+    }
+
+    /**
+     * Permet d'obtenir la durée de l'import
+     * @return la durée en millisecondes
+     */
+    public long getDureeMs() {
+        return duree / 1_000_000;
+    }
+
+    /**
+     * Permet d'obtenir le débit de l'import
+     * @return le nombre de lignes lues par seconde
+     */
+    public double getLignesParSeconde() {
+        return duree == 0 ? 0 : lignesLues * 1e9 / duree;
+    }
+
+    public long getGcCollections() {
+        return gcCollections;
+    }
+
+    public long getGcTempsMs() {
+        return gcTemps;
+    }
+
+    /**
+     * Permet d'obtenir le nombre d'octets alloués pendant l'import, threads des moteurs parallèles compris
+     * @return le nombre d'octets
+     */
+    public long getOctetsAlloues() {
+        return octetsAlloues + octetsAllouesWorkers.sum();
+    }
+
+    /**
+     * Retourne un résumé des métriques sous forme de chaîne de caractères
+     * @return le résumé
+     */
+    @Override
+    public String toString() {
+        String resume = String.format("%d lignes lues en %d ms (%.0f lignes/s) : %d produits insérés, %d mis à jour, %d lignes rejetées, "
+                        + "%d associations en %d instructions ; %d instructions Hibernate (%.2f instructions SQL par produit) ; "
+                        + "GC : %d collections, %d ms, %d Mo alloués",
+                lignesLues, getDureeMs(), getLignesParSeconde(), produitsInseres, produitsMisAJour, lignesRejetees,
+                lignesAssociations, instructionsAssociations, instructionsHibernate, getInstructionsParProduit(),
+                gcCollections, gcTemps, getOctetsAlloues() >> 20);
+        if (lotsRejoues > 0) {
+            resume += String.format(" ; %d lots rejoués", lotsRejoues);
+        }
+        if (!decisions.isEmpty()) {
+            // Le détail de chaque décision reste disponible par getDecisions()
+            AdaptiveBatchController.Decision derniere = decisions.get(decisions.size() - 1);
+            IntSummaryStatistics batch = decisions.stream().mapToInt(AdaptiveBatchController.Decision::batchSize).summaryStatistics();
+            IntSummaryStatistics chunk = decisions.stream().mapToInt(AdaptiveBatchController.Decision::chunkSize).summaryStatistics();
+            resume += String.format(" ; %d décisions de taille, lots JDBC de %d produits et transactions de %d lignes en fin d'import"
+                            + " (lots de %d à %d produits, transactions de %d à %d lignes)",
+                    decisions.size(), derniere.batchSize(), derniere.chunkSize(),
+                    batch.getMin(), batch.getMax(), chunk.getMin(), chunk.getMax());
+        }
+        return resume;
+    }
+}
@@ -0,0 +1,266 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Suite de non-régression du débit de l'import, de bout en bout
+ * <p>Pour chaque taille demandée, un fichier est généré par {@link OffDatasetGenerator} (puis réutilisé tant que la taille
+ * et la graine ne changent pas), et importé avec chaque moteur dans une base locale recréée à vide.
+ * Chaque import relève le débit, le pic d'occupation du tas et le nombre d'instructions SQL.</p>
+ * <p>Les mesures sont comparées à une référence enregistrée, par défaut {@code perf/throughput-baseline.properties}.
+ * Le programme se termine avec le code 1 si le débit baisse de plus de la tolérance, ou si le nombre d'instructions SQL,
+ * qui ne dépend pas de la machine, augmente de plus de la tolérance. Le pic de tas est affiché à titre indicatif.
+ * Les mesures absentes de la référence y sont ajoutées ; {@code --update-baseline} remplace toutes les mesures.</p>
+ * <p>Avec {@code --two-pass}, chaque fichier est aussi importé en deux passes ({@link ReferenceDictionary}), mesuré sous
+ * la clé {@code <moteur>-2p.<lignes>}. Le contenu des deux bases est comparé par une empreinte des produits
+ * et des associations, où les références sont désignées par leur nom canonique, indépendante des identifiants :
+ * un écart fait aussi échouer la suite.</p>
+ * <p>Usage : {@code ImportThroughputRegression [--sizes 10k,100k] [--engine stateless] [--seed n] [--tolerance 0.15]
+ * [--baseline fichier] [--data dossier] [--url jdbc:...] [--user u] [--password p] [--two-pass] [--update-baseline]}</p>
+ * <p>Aucune phase du build Maven ne lance cette suite : elle a besoin d'une base MySQL locale et de plusieurs minutes.
+ * Elle se lance depuis la racine du projet, à la main ou comme étape de la CI après {@code mvn test},
+ * le code de sortie 1 faisant échouer l'étape :</p>
+ * <pre>
+ * mvn -B compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/classes:$(cat target/classpath.txt) fr.yuka_projet.ImportThroughputRegression --sizes 10k
+ * </pre>
+ */
+public class ImportThroughputRegression {
+
+    /**
+     * Baisse de débit tolérée par défaut, en proportion de la référence
+     */
+    public static final double DEFAULT_TOLERANCE = 0.15;
+
+    // Contenu comparé entre deux imports : les lignes sont désignées par leurs noms, pas par leurs identifiants.
+    // Les références le sont par leur nom canonique : leur nom affiché dépend de la ligne qui les crée en premier,
+    // qui peut changer entre un import en une passe, en deux passes ou parallèle
+    private static final List<String> EMPREINTE = List.of(
+            "SELECT CONCAT(p.nom, '|', c.nom_canonique, '|', m.nom_canonique, '|', p.score_nutritionnel, '|', p.allergenes_masque) "
+                    + "FROM produit p JOIN categorie c ON c.id = p.id_cat JOIN marque m ON m.id = p.id_marq",
+            "SELECT CONCAT(p.nom, '|', c.nom_canonique, '|', m.nom_canonique, '|', i.nom_canonique) FROM pro_ing l "
+                    + "JOIN produit p ON p.id = l.produit_id JOIN categorie c ON c.id = p.id_cat "
+                    + "JOIN marque m ON m.id = p.id_marq JOIN ingredient i ON i.id = l.ingredient_id",
+            "SELECT CONCAT(p.nom, '|', c.nom_canonique, '|', m.nom_canonique, '|', a.nom_canonique, '|', a.bit_masque) FROM all_pro l "
+                    + "JOIN produit p ON p.id = l.produit_id JOIN categorie c ON c.id = p.id_cat "
+                    + "JOIN marque m ON m.id = p.id_marq JOIN allergene a ON a.id = l.allergen_id");
+
+    private final Map<String, Object> proprietes;
+    private final Path dossierDonnees;
+    private final long seed;
+
+    /**
+     * Constructeur de la classe ImportThroughputRegression
+     * @param proprietes les propriétés ajoutées à l'unité de persistance "food", par exemple l'URL de la base locale
+     * @param dossierDonnees le dossier des fichiers générés
+     * @param seed la graine du générateur
+     */
+    public ImportThroughputRegression(Map<String, Object> proprietes, Path dossierDonnees, long seed) {
+        this.proprietes = new HashMap<>(proprietes);
+        this.proprietes.put("hibernate.show_sql", "false");
+        this.proprietes.put("jakarta.persistence.schema-generation.database.action", "drop-and-create");
+        this.dossierDonnees = dossierDonnees;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> tailles = List.of("10k", "100k");
+        List<ImportEngine.Type> moteurs = new ArrayList<>(List.of(ImportEngine.Type.values()));
+        long seed = OffDatasetGenerator.DEFAULT_SEED;
+        double tolerance = DEFAULT_TOLERANCE;
+        Path cheminReference = Path.of("perf", "throughput-baseline.properties");
+        Path dossierDonnees = Path.of("target", "perf");
+        boolean miseAJour = false;
+        boolean deuxPasses = false;
+        Map<String, Object> proprietes = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes" -> tailles = List.of(args[++i].split(","));
+                case "--engine" -> moteurs = List.of(ImportEngine.Type.parse(args[++i]));
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                case "--baseline" -> cheminReference = Path.of(args[++i]);
+                case "--data" -> dossierDonnees = Path.of(args[++i]);
+                case "--url" -> proprietes.put("jakarta.persistence.jdbc.url", args[++i]);
+                case "--user" -> proprietes.put("jakarta.persistence.jdbc.user", args[++i]);
+                case "--password" -> proprietes.put("jakarta.persistence.jdbc.password", args[++i]);
+                case "--two-pass" -> deuxPasses = true;
+                case "--update-baseline" -> miseAJour = true;
+                default -> throw new IllegalArgumentException("Argument inconnu : " + args[i]);
+            }
+        }
+
+        ImportThroughputRegression suite = new ImportThroughputRegression(proprietes, dossierDonnees, seed);
+        List<Mesure> mesures = new ArrayList<>();
+        List<String> ecarts = new ArrayList<>();
+        for (String taille : tailles) {
+            for (ImportEngine.Type moteur : moteurs) {
+                Mesure unePasse = suite.run(OffDatasetGenerator.parseLignes(taille), moteur, false);
+                mesures.add(unePasse);
+                if (deuxPasses) {
+                    Mesure deuxPasse = suite.run(OffDatasetGenerator.parseLignes(taille), moteur, true);
+                    mesures.add(deuxPasse);
+                    if (deuxPasse.empreinte() != unePasse.empreinte()) {
+                        ecarts.add(deuxPasse.cle() + " : contenu différent de l'import en une passe");
+                    }
+                }
+            }
+        }
+
+        Map<String, String> reference = load(cheminReference);
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%-24s %12s %12s %10s %14s %12s %16s%n",
+                "mesure", "lignes/s", "référence", "écart", "instructions", "référence", "pic du tas (Mo)");
+        for (Mesure mesure : mesures) {
+            double debitReference = parse(reference.get(mesure.cle() + ".lignesParSeconde"));
+            double instructionsReference = parse(reference.get(mesure.cle() + ".instructions"));
+            System.out.printf("%-24s %12.0f %12.0f %9.1f%% %14d %12.0f %16d%n", mesure.cle(), mesure.lignesParSeconde(),
+                    debitReference, debitReference > 0 ? 100 * (mesure.lignesParSeconde() / debitReference - 1) : 0,
+                    mesure.instructions(), instructionsReference, mesure.picTasMo());
+            if (debitReference > 0 && mesure.lignesParSeconde() < debitReference * (1 - tolerance)) {
+                regressions.add(String.format("%s : %.0f lignes/s pour une référence de %.0f", mesure.cle(),
+                        mesure.lignesParSeconde(), debitReference));
+            }
+            if (instructionsReference > 0 && mesure.instructions() > instructionsReference * (1 + tolerance)) {
+                regressions.add(String.format("%s : %d instructions SQL pour une référence de %.0f", mesure.cle(),
+                        mesure.instructions(), instructionsReference));
+            }
+            if (miseAJour || debitReference == 0) {
+                reference.put(mesure.cle() + ".lignesParSeconde", String.format(Locale.ROOT, "%.0f", mesure.lignesParSeconde()));
+                reference.put(mesure.cle() + ".instructions", Long.toString(mesure.instructions()));
+                reference.put(mesure.cle() + ".picTasMo", Long.toString(mesure.picTasMo()));
+            }
+        }
+        store(cheminReference, reference);
+
+        // Un contenu différent ne dépend pas de la référence : la mise à jour ne l'excuse pas
+        if (!ecarts.isEmpty()) {
+            System.out.println("Imports en deux passes différents de l'import en une passe :");
+            ecarts.forEach(ecart -> System.out.println("  " + ecart));
+            System.exit(1);
+        }
+        if (!regressions.isEmpty() && !miseAJour) {
+            System.out.println("Régressions au-delà de " + Math.round(tolerance * 100) + " % :");
+            regressions.forEach(regression -> System.out.println("  " + regression));
+            System.exit(1);
+        }
+        System.out.println("Aucune régression, référence : " + cheminReference);
+    }
+
+    /**
+     * Importe un fichier généré dans une base recréée à vide
+     * @param lignes le nombre de lignes du fichier
+     * @param moteur le moteur d'import
+     * @param deuxPasses {@code true} pour créer d'abord les entités de référence avec un {@link ReferenceDictionary}
+     * @return les mesures de l'import, première passe comprise
+     * @throws IOException si le fichier ne peut pas être généré ou importé
+     */
+    public Mesure run(long lignes, ImportEngine.Type moteur, boolean deuxPasses) throws IOException {
+        Path fichier = dossierDonnees.resolve("off-" + lignes + "-" + seed + ".csv");
+        if (!Files.isRegularFile(fichier)) {
+            new OffDatasetGenerator(lignes, seed).generate(fichier, lignes);
+        }
+
+        EntityManagerFactory dbFactory = Persistence.createEntityManagerFactory("food", proprietes);
+        try (ImportEngine engine = moteur.open(dbFactory)) {
+            List<MemoryPoolMXBean> tas = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+            System.gc();
+            tas.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+            long debut = System.nanoTime();
+            CsvImporterFood importer = new CsvImporterFood(engine);
+            if (deuxPasses) {
+                importer.setReferences(ReferenceDictionary.build(dbFactory, fichier, importer.getNormalizer(),
+                        Runtime.getRuntime().availableProcessors()));
+            }
+            importer.importCSVToDatabase(fichier.toString());
+            long duree = System.nanoTime() - debut;
+
+            // Somme des pics de chaque zone : un majorant du pic d'occupation du tas
+            long picTas = tas.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            ImportMetrics metrics = importer.getMetrics();
+            return new Mesure(moteur.name().toLowerCase(Locale.ROOT) + (deuxPasses ? "-2p." : ".") + lignes,
+                    deuxPasses ? metrics.getLignesLues() * 1e9 / duree : metrics.getLignesParSeconde(),
+                    picTas >> 20, metrics.getInstructionsHibernate() + metrics.getInstructionsAssociations(), empreinte(dbFactory));
+        } finally {
+            dbFactory.close();
+        }
+    }
+
+    // Somme des hachages des lignes : ne dépend ni des identifiants attribués ni de l'ordre de lecture
+    private static long empreinte(EntityManagerFactory dbFactory) {
+        EntityManager em = dbFactory.createEntityManager();
+        try {
+            long empreinte = 0;
+            for (String requete : EMPREINTE) {
+                try (Stream<?> lignes = em.createNativeQuery(requete).getResultStream()) {
+                    empreinte = empreinte * 31 + lignes.mapToLong(ligne -> ligne.hashCode() * 0x9E3779B97F4A7C15L).sum();
+                }
+            }
+            return empreinte;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Map<String, String> load(Path chemin) throws IOException {
+        Map<String, String> valeurs = new TreeMap<>();
+        if (Files.isRegularFile(chemin)) {
+            Properties proprietes = new Properties();
+            try (Reader in = Files.newBufferedReader(chemin, StandardCharsets.UTF_8)) {
+                proprietes.load(in);
+            }
+            proprietes.forEach((cle, valeur) -> valeurs.put((String) cle, (String) valeur));
+        }
+        return valeurs;
+    }
+
+    private static void store(Path chemin, Map<String, String> valeurs) throws IOException {
+        if (chemin.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(chemin.toAbsolutePath().getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(chemin, StandardCharsets.UTF_8)) {
+            out.write("# Référence de ImportThroughputRegression : <moteur>.<lignes>.<mesure>\n");
+            out.write("# Mesures propres à la machine et à la base utilisées, à régénérer avec --update-baseline\n");
+            for (Map.Entry<String, String> valeur : valeurs.entrySet()) {
+                out.write(valeur.getKey() + "=" + valeur.getValue() + "\n");
+            }
+        }
+    }
+
+    private static double parse(String valeur) {
+        return valeur == null ? 0 : Double.parseDouble(valeur);
+    }
+
+    /**
+     * Les mesures d'un import
+     * @param cle le moteur et le nombre de lignes, par exemple {@code stateless.100000}
+     * @param lignesParSeconde le débit de l'import
+     * @param picTasMo le pic d'occupation du tas pendant l'import, en mégaoctets
+     * @param instructions le nombre d'instructions SQL préparées, associations comprises
+     * @param empreinte l'empreinte du contenu importé, égale pour deux imports qui écrivent les mêmes données
+     */
+    public record Mesure(String cle, double lignesParSeconde, long picTasMo, long instructions, long empreinte) {
+    }
+}
@@ -1,6 +1,7 @@
 package fr.yuka_projet;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,12 +31,19 @@ public class Ingredient {
      * <ul>
      *     <li>Longueur maximale : 255 caractères</li>
      *     <li>Ne peut pas être nul</li>
-     *     <li>Doit être unique</li>
      * </ul>
      */
-    @Column(name="nom", length = 255, nullable = false, unique = true)
+    @Column(name="nom", length = 255, nullable = false)
     private String nom;
 
+    /**
+     * La forme canonique du nom de l'ingrédient, calculée par {@link NameNormalizer}
+     * <p>Clé de recherche de l'import : "Lait écrémé" et "_lait écrémé_" désignent la même ligne, dont le champ {@code nom}
+     * garde l'écriture rencontrée en premier. C'est cette colonne qui est unique.</p>
+     */
+    @Column(name="nom_canonique", length = 255, nullable = false, unique = true)
+    private String nomCanonique;
+
     /**
      * Un bean entité doit obligatoirement avoir un constructeur sans paramètre pour le jpa
      */
@@ -45,24 +53,31 @@ public class Ingredient {
 
     /**
      * Le constructeur de la classe Ingredient
+     * <p>La forme canonique est calculée à partir du nom.</p>
      * @param nom le nom de l'ingrédient
      */
     public Ingredient(String nom) {
+        this(nom, NameNormalizer.canonicalize(nom));
+    }
+
+    /**
+     * Constructeur avec le nom affiché et sa forme canonique, déjà calculée par l'import
+     * @param nom le nom affiché de l'ingrédient
+     * @param nomCanonique la forme canonique du nom
+     */
+    public Ingredient(String nom, String nomCanonique) {
         this.nom = nom;
+        this.nomCanonique = nomCanonique;
     }
 
     /**
      * Représente la liste des produits associés à cet ingrédient
-     * Elle est lié à une table d'association dans la base de donnée appelée "pro_ing" qui contient les 2 clés étrangères :
-     * "id_ing" pointant l'identifiant unique de l'ingrédient et "id_pro" pointant l'identifiant unique du produit
+     * <p>Ce champ est le côté inverse de la relation {@code Produit.ingredients}, propriétaire de la table d'association "pro_ing" :
+     * {@code mappedBy = "ingredients"} évite qu'Hibernate écrive ou supprime deux fois le même lien.</p>
+     * <p>Un ingrédient de base (sucre, sel, eau) est lié à une grande partie du catalogue : la liste n'est utile que pour les ingrédients rares.</p>
      */
-    @ManyToMany
-    @JoinTable(name="pro_ing",
-            joinColumns= @JoinColumn(name="ingredient_id", referencedColumnName=
-                    "id"),
-            inverseJoinColumns= @JoinColumn(name="produit_id", referencedColumnName=
-                    "id")
-    )
+    @ManyToMany(mappedBy = "ingredients")
+    @BatchSize(size = 50)
     List<Produit> produits = new ArrayList<>();
 
     /**
@@ -89,6 +104,14 @@ public class Ingredient {
         this.nom = nom;
     }
 
+    /**
+     * Permet d'obtenir la forme canonique du nom de l'ingrédient
+     * @return la forme canonique, clé de recherche de l'import
+     */
+    public String getNomCanonique() {
+        return nomCanonique;
+    }
+
     /**
      * Permet d'obtenir une liste de produits
      * @return la liste
@@ -6,25 +6,123 @@ import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class IntegrationOpenFoodFacts {
 
+    // Taille du fichier généré quand aucun fichier n'est donné
+    private static final long LIGNES_GENEREES = 1_000;
+
     public static void main(String[] args) {
+        // Arguments : [fichier.csv] [--create-schema] [--engine entity-manager|stateless] [--bulk] [--resume] [--chunk-size n]
+        //             [--adaptive] [--batch-bounds min:max] [--chunk-bounds min:max] [--two-pass] [--workers n]
+        //             [--export-snapshot fichier] [--check-aggregates]
+        // Sans --create-schema, le schéma existant est validé puis le fichier y est importé : les produits déjà présents sont mis à jour
+        // Sans fichier, un petit fichier est généré par OffDatasetGenerator dans le dossier temporaire
+        String cheminCsv = null;
+        String cheminSnapshot = null;
+        ImportEngine.Type moteur = ImportEngine.Type.ENTITY_MANAGER;
+        boolean creationSchema = false;
+        boolean verificationCompteurs = false;
+        boolean chargementEnMasse = false;
+        boolean reprise = false;
+        int tailleLot = CsvImporterFood.DEFAULT_CHUNK_SIZE;
+        boolean adaptatif = false;
+        int[] bornesBatch = {50, 5_000};
+        int[] bornesChunk = {1_000, 100_000};
+        boolean deuxPasses = false;
+        int nbWorkers = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--create-schema" -> creationSchema = true;
+                case "--check-aggregates" -> verificationCompteurs = true;
+                case "--engine" -> moteur = ImportEngine.Type.parse(args[++i]);
+                case "--bulk" -> chargementEnMasse = true;
+                case "--resume" -> reprise = true;
+                case "--chunk-size" -> tailleLot = Integer.parseInt(args[++i]);
+                case "--adaptive" -> adaptatif = true;
+                case "--batch-bounds" -> bornesBatch = bornes(args[++i]);
+                case "--chunk-bounds" -> bornesChunk = bornes(args[++i]);
+                case "--two-pass" -> deuxPasses = true;
+                case "--workers" -> nbWorkers = Integer.parseInt(args[++i]);
+                case "--export-snapshot" -> cheminSnapshot = args[++i];
+                default -> cheminCsv = args[i];
+            }
+        }
+        if (creationSchema && reprise) {
+            throw new IllegalArgumentException("--create-schema supprimerait le point de reprise demandé par --resume");
+        }
+
         // Créer l'EntityManagerFactory et l'EntityManager
         EntityManagerFactory dbFactory = null;
         EntityManager em = null;
 
         try {
-            dbFactory = Persistence.createEntityManagerFactory("food"); // Nom de l'unité de persistance
-            em = dbFactory.createEntityManager();
+            if (cheminCsv == null) {
+                cheminCsv = OffDatasetGenerator.generateTemporaire(LIGNES_GENEREES).toString();
+                System.out.println("Aucun fichier donné, " + LIGNES_GENEREES + " lignes générées dans " + cheminCsv);
+            }
 
-            // Initialisation de CsvImporterFood avec l'EntityManager
-            CsvImporterFood importer = new CsvImporterFood(em);
+            // Le schéma n'est recréé, vide, que sur demande : sinon l'import s'applique aux produits et compteurs existants
+            Map<String, Object> proprietes = creationSchema
+                    ? Map.of("jakarta.persistence.schema-generation.database.action", "drop-and-create")
+                    : Map.of();
+            dbFactory = Persistence.createEntityManagerFactory("food", proprietes); // Nom de l'unité de persistance
+            em = dbFactory.createEntityManager();
 
             System.out.println("Spring Boot started successfully !!");
 
-            // Appeler la méthode d'importation de CSV dans la base de données
-            importer.importCSVToDatabase("C:\\Temp\\open-food-facts.csv");
+            // En chargement en masse, les index secondaires et les clés étrangères sont reconstruits après l'import
+            BulkLoadIndexes index = new BulkLoadIndexes(dbFactory);
+            if (chargementEnMasse) {
+                index.disable();
+            }
+
+            // Initialisation de CsvImporterFood avec le moteur choisi, puis importation du CSV dans la base de données
+            List<ImportEngine> workers = new ArrayList<>();
+            try (ImportEngine engine = moteur.open(dbFactory)) {
+                CsvImporterFood importer = new CsvImporterFood(engine);
+                importer.setChunkSize(tailleLot);
+                // Import en deux passes : les références sont créées d'abord, les produits peuvent alors être écrits en parallèle
+                if (deuxPasses || nbWorkers > 1) {
+                    importer.setReferences(ReferenceDictionary.build(dbFactory, Path.of(cheminCsv), importer.getNormalizer(),
+                            Runtime.getRuntime().availableProcessors()));
+                }
+                if (nbWorkers > 1) {
+                    for (int i = 0; i < nbWorkers; i++) {
+                        workers.add(moteur.open(dbFactory));
+                    }
+                    importer.setWorkers(workers);
+                }
+                if (adaptatif) {
+                    // Les tailles fixées servent de point de départ, le contrôleur les ajuste ensuite dans leurs bornes
+                    importer.setAdaptiveController(new AdaptiveBatchController(bornesBatch[0], bornesBatch[1],
+                            AbstractImportEngine.DEFAULT_BATCH_SIZE, bornesChunk[0], bornesChunk[1], tailleLot));
+                }
+                importer.importCSVToDatabase(cheminCsv, reprise);
+            } finally {
+                workers.forEach(ImportEngine::close);
+            }
+
+            if (chargementEnMasse) {
+                index.rebuild();
+            }
+
+            // Comparer les compteurs du catalogue, ajustés par les imports successifs, à leur recalcul complet
+            if (verificationCompteurs) {
+                List<String> ecarts = new CatalogAggregates(em).verifier();
+                System.out.println(ecarts.isEmpty()
+                        ? "Compteurs du catalogue identiques à leur recalcul."
+                        : ecarts.size() + " compteurs du catalogue diffèrent de leur recalcul (tenu / recalculé) : " + ecarts);
+            }
+
+            // Exporter l'instantané binaire du catalogue pour les services de consultation
+            if (cheminSnapshot != null) {
+                new CatalogSnapshotWriter(em).export(Path.of(cheminSnapshot));
+            }
 
         } catch (IOException e) { // Gérer  IOException
             System.err.println("Erreur de lecture/écriture : " + e.getMessage());
@@ -39,4 +137,13 @@ public class IntegrationOpenFoodFacts {
             }
         }
     }
+
+    // Lit des bornes de la forme min:max
+    private static int[] bornes(String valeur) {
+        String[] parties = valeur.split(":");
+        if (parties.length != 2) {
+            throw new IllegalArgumentException("Bornes attendues sous la forme min:max : " + valeur);
+        }
+        return new int[]{Integer.parseInt(parties[0].trim()), Integer.parseInt(parties[1].trim())};
+    }
 }
@@ -0,0 +1,22 @@
+package fr.yuka_projet;
+
+import java.util.List;
+
+/**
+ * Représente une ligne valide du fichier Open Food Facts, prête à être écrite par un {@link ImportEngine}
+ * @param numeroLigne le numéro de la ligne dans le fichier, pour les messages d'erreur
+ * @param categorie le nom de la catégorie
+ * @param marque le nom de la marque
+ * @param nom le nom du produit
+ * @param scoreNutritionnel le score nutritionnel du produit
+ * @param ingredients les noms des ingrédients, éventuellement répétés
+ * @param allergenes les noms des allergènes, éventuellement répétés
+ */
+public record LigneProduit(long numeroLigne,
+                           NameNormalizer.Nom categorie,
+                           NameNormalizer.Nom marque,
+                           String nom,
+                           NutritionGradeFr scoreNutritionnel,
+                           List<NameNormalizer.Nom> ingredients,
+                           List<NameNormalizer.Nom> allergenes) {
+}
@@ -0,0 +1,86 @@
+package fr.yuka_projet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Vérifie et extrait les champs d'un enregistrement de l'export Open Food Facts
+ * <p>Les noms de catégorie, de marque, d'ingrédients et d'allergènes sont accompagnés de leur forme canonique
+ * ({@link NameNormalizer}). Le parseur ne garde aucun état propre : il peut être utilisé par plusieurs threads.</p>
+ */
+class LigneProduitParser {
+
+    private static final Pattern SEPARATEURS_INGREDIENTS = Pattern.compile("[,;:]+|\\s+et\\s+");
+    private static final Pattern SEPARATEURS_ALLERGENES = Pattern.compile("[,;\\-]+");
+
+    private final NameNormalizer normalizer;
+    private final boolean signalerRejets;
+
+    /**
+     * Constructeur de la classe LigneProduitParser
+     * @param normalizer le normaliseur des noms
+     * @param signalerRejets {@code true} pour afficher la raison de chaque ligne ignorée
+     */
+    LigneProduitParser(NameNormalizer normalizer, boolean signalerRejets) {
+        this.normalizer = normalizer;
+        this.signalerRejets = signalerRejets;
+    }
+
+    NameNormalizer getNormalizer() {
+        return normalizer;
+    }
+
+    // Vérifie et extrait les champs d'une ligne, ou retourne null si la ligne est ignorée
+    LigneProduit parse(long lineNumber, String[] columns) {
+        // Vérification du nombre de colonnes
+        if (columns.length < 30) {
+            rejet("Ligne " + lineNumber + " ignorée : pas assez de colonnes.");
+            return null;
+        }
+
+        NutritionGradeFr scoreNutritionnel;
+        try {
+            scoreNutritionnel = NutritionGradeFr.valueOf(columns[3].toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            rejet("Ligne " + lineNumber + " ignorée : Score nutritionnel invalide (" + columns[3] + ").");
+            return null;
+        }
+
+        // Extrait les ingrédients et les allergènes, les entités de référence sont désignées par leur nom canonique
+        return new LigneProduit(lineNumber, normalizer.nom(columns[0]), normalizer.nom(columns[1]), columns[2],
+                scoreNutritionnel, splitIngredients(columns[4]), splitAllergens(columns[28]));
+    }
+
+    private void rejet(String message) {
+        if (signalerRejets) {
+            System.out.println(message);
+        }
+    }
+
+    // Méthode pour découper les ingrédients
+    private List<NameNormalizer.Nom> splitIngredients(String ingredientsColumn) {
+        // On découpe la chaîne par les séparateurs ",", ";", ":" et le mot "et"
+        String[] ingredientsArray = SEPARATEURS_INGREDIENTS.split(ingredientsColumn);
+        return normalize(ingredientsArray);
+    }
+
+    // Méthode pour découper les allergènes
+    private List<NameNormalizer.Nom> splitAllergens(String allergensColumn) {
+        // On découpe la chaîne par les séparateurs ",", ";", "-"
+        String[] allergensArray = SEPARATEURS_ALLERGENES.split(allergensColumn);
+        return normalize(allergensArray);
+    }
+
+    // Associe chaque nom à sa forme canonique, les noms vides sont ignorés
+    private List<NameNormalizer.Nom> normalize(String[] noms) {
+        List<NameNormalizer.Nom> normalises = new ArrayList<>(noms.length);
+        for (String nom : noms) {
+            NameNormalizer.Nom normalise = normalizer.nom(nom);
+            if (!normalise.canonique().isEmpty()) { // Vérifie que le nom n'est pas vide
+                normalises.add(normalise);
+            }
+        }
+        return normalises;
+    }
+}
@@ -1,5 +1,6 @@
 package fr.yuka_projet;
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 import java.util.ArrayList;
 import java.util.List;
 /**
@@ -30,16 +31,26 @@ public class Marque {
      *     <li></li>
      * </ul>
      */
-    @Column(name="nom", length = 255, nullable = false, unique = true)
+    @Column(name="nom", length = 255, nullable = false)
     private String nom;
 
+    /**
+     * La forme canonique du nom de la marque, calculée par {@link NameNormalizer}
+     * <p>Clé de recherche de l'import : "Nestlé" et "NESTLE" désignent la même ligne, dont le champ {@code nom}
+     * garde l'écriture rencontrée en premier. C'est cette colonne qui est unique.</p>
+     */
+    @Column(name="nom_canonique", length = 255, nullable = false, unique = true)
+    private String nomCanonique;
+
     /**
      * Représente la liste des produits associés à cette marque
      * <p>Ce champ est annoté avec {@code @OneToMany(mappedBy = "marque")} pour indiquer qu'il s'agit d'une relation un-à-plusieurs
      * avec l'entité {@code Produit}.
      * Le champ {@code marque} dans l'entité {@code Produit} est utilisé pour mapper cette relation.</p>
+     * <p>Aucune cascade : modifier une marque ne charge ni ne réécrit ses produits.</p>
      */
-    @OneToMany(mappedBy = "marque", cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "marque")
+    @BatchSize(size = 50)
     private List<Produit> produits = new ArrayList<>();
 
     /**
@@ -51,10 +62,21 @@ public class Marque {
 
     /**
      * Constructeur de la classe Marque
+     * <p>La forme canonique est calculée à partir du nom.</p>
      * @param nom Le nom de la marque
      */
     public Marque(String nom) {
+        this(nom, NameNormalizer.canonicalize(nom));
+    }
+
+    /**
+     * Constructeur avec le nom affiché et sa forme canonique, déjà calculée par l'import
+     * @param nom le nom affiché de la marque
+     * @param nomCanonique la forme canonique du nom
+     */
+    public Marque(String nom, String nomCanonique) {
         this.nom = nom;
+        this.nomCanonique = nomCanonique;
     }
 
     /**
@@ -81,6 +103,14 @@ public class Marque {
         this.nom = nom;
     }
 
+    /**
+     * Permet d'obtenir la forme canonique du nom de la marque
+     * @return la forme canonique, clé de recherche de l'import
+     */
+    public String getNomCanonique() {
+        return nomCanonique;
+    }
+
     /**
      * Retourne une représentation sous forme de chaîne de caractères de l'objet Marque
      * @return Une chaîne de caractères de l'objet Marque
@@ -90,7 +120,6 @@ public class Marque {
         return "Marque{" +
                 "id_marque=" + id +
                 ", nom='" + nom + '\'' +
-                ", produits=" + produits +
                 '}';
     }
 }
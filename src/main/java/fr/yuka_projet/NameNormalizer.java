@@ -0,0 +1,127 @@
+package fr.yuka_projet;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Forme canonique des noms de catégories, marques, ingrédients et allergènes
+ * <p>"Lait", "lait", "LAIT ", "_lait_" et "lait*" désignent le même ingrédient : la forme canonique est en minuscules,
+ * sans accents, sans le balisage de l'export Open Food Facts ({@code _} autour des allergènes, {@code *} des ingrédients
+ * biologiques), avec des espaces simples et sans point final.</p>
+ * <p>La forme canonique ne sert que de clé : elle est enregistrée dans la colonne {@code nom_canonique} des tables
+ * de référence. Le nom affiché garde l'écriture du fichier, majuscules et accents compris, sans le balisage
+ * et les espaces superflus ({@link Nom#affiche()}).</p>
+ * <p>Chaque texte brut n'est normalisé qu'une fois : le résultat est gardé dans un cache borné, vidé quand il atteint
+ * sa taille maximale. Les formes canoniques sont partagées : deux textes bruts équivalents donnent la même instance,
+ * utilisée ensuite comme clé par les caches de l'import.</p>
+ * <p>Cette classe peut être utilisée par plusieurs threads.</p>
+ */
+public class NameNormalizer {
+
+    /**
+     * Nombre maximal de textes bruts gardés en cache par défaut
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 18;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern BALISAGE = Pattern.compile("[_*]+");
+    private static final Pattern ESPACES = Pattern.compile("[\\s\\u00A0\\u2007\\u202F]+");
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Nom> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> canoniques = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur avec la taille de cache par défaut
+     */
+    public NameNormalizer() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructeur de la classe NameNormalizer
+     * @param maxEntries le nombre maximal de textes bruts gardés en cache
+     */
+    public NameNormalizer(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("La taille du cache doit être positive : " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Retourne la forme canonique d'un nom
+     * @param brut le nom tel qu'il apparaît dans le fichier
+     * @return la forme canonique partagée, vide si le nom ne contient que du balisage ou des espaces
+     */
+    public String normalize(String brut) {
+        return nom(brut).canonique();
+    }
+
+    /**
+     * Retourne la forme canonique et le nom affiché d'un nom
+     * @param brut le nom tel qu'il apparaît dans le fichier
+     * @return le nom, partagé par tous les appels avec le même texte brut tant qu'il reste en cache
+     */
+    public Nom nom(String brut) {
+        Nom nom = cache.get(brut);
+        if (nom == null) {
+            String affiche = clean(brut);
+            nom = new Nom(intern(canonicalize(affiche)), affiche);
+            if (cache.size() >= maxEntries) {
+                cache.clear();
+            }
+            cache.put(brut, nom);
+        }
+        return nom;
+    }
+
+    /**
+     * Permet d'obtenir le nombre de textes bruts actuellement en cache
+     * @return le nombre d'entrées du cache
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    // Une seule instance par forme canonique
+    private String intern(String canonique) {
+        if (canoniques.size() >= maxEntries) {
+            canoniques.clear();
+        }
+        String partagee = canoniques.putIfAbsent(canonique, canonique);
+        return partagee != null ? partagee : canonique;
+    }
+
+    /**
+     * Calcule la forme canonique, sans passer par le cache
+     * @param brut le nom tel qu'il apparaît dans le fichier
+     * @return la forme canonique
+     */
+    static String canonicalize(String brut) {
+        String texte = Normalizer.normalize(clean(brut), Normalizer.Form.NFD);
+        texte = ACCENTS.matcher(texte).replaceAll("");
+        // Les ligatures ne sont pas décomposées par la normalisation Unicode
+        return texte.toLowerCase(Locale.ROOT).replace("œ", "oe").replace("æ", "ae");
+    }
+
+    // Retire le balisage, les espaces superflus et le point final, sans toucher aux majuscules ni aux accents
+    private static String clean(String brut) {
+        String texte = BALISAGE.matcher(brut).replaceAll(" ");
+        texte = ESPACES.matcher(texte).replaceAll(" ").strip();
+        while (texte.endsWith(".")) {
+            texte = texte.substring(0, texte.length() - 1).stripTrailing();
+        }
+        return texte;
+    }
+
+    /**
+     * Un nom de catégorie, de marque, d'ingrédient ou d'allergène lu dans le fichier
+     * @param canonique la forme canonique, clé de l'entité de référence
+     * @param affiche le nom tel qu'écrit dans le fichier, sans balisage ni espaces superflus
+     */
+    public record Nom(String canonique, String affiche) {
+    }
+}
@@ -0,0 +1,268 @@
+package fr.yuka_projet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Génère un fichier au format de l'export Open Food Facts lu par {@link CsvImporterFood}
+ * <p>Le fichier est déterministe : pour une même graine et un même nombre de lignes, le contenu est identique octet pour octet.
+ * Les cardinalités suivent celles de l'export réel : quelques milliers de catégories, des dizaines de milliers de marques,
+ * un vocabulaire d'ingrédients bien plus large, chacun tiré selon une distribution très inégale (quelques valeurs fréquentes,
+ * une longue traîne de valeurs rares).</p>
+ * <p>Le fichier contient aussi ce que l'import doit savoir traiter :</p>
+ * <ul>
+ *     <li>des produits répétés, pour l'import différentiel ;</li>
+ *     <li>des listes d'ingrédients longues, jusqu'à {@value #MAX_INGREDIENTS} ingrédients ;</li>
+ *     <li>des variantes d'écriture des ingrédients (majuscules, accents, balises {@code _lait_}, astérisques) ;</li>
+ *     <li>des lignes tronquées, des scores nutritionnels invalides et des champs entre guillemets.</li>
+ * </ul>
+ * <p>Usage : {@code OffDatasetGenerator fichier.csv lignes [--seed n]}, le nombre de lignes acceptant les suffixes
+ * {@code k} et {@code m}, par exemple {@code 10k} ou {@code 50m}.</p>
+ */
+public class OffDatasetGenerator {
+
+    /**
+     * Graine utilisée par défaut
+     */
+    public static final long DEFAULT_SEED = 42;
+
+    static final int MAX_INGREDIENTS = 200;
+
+    private static final String ENTETE = "categorie|marque|nom|nutritionGradeFr|ingredients|energie100g|graisse100g|sucres100g"
+            + "|fibres100g|proteines100g|sel100g|vitA100g|vitD100g|vitE100g|vitK100g|vitC100g|vitB1100g|vitB2100g|vitPP100g"
+            + "|vitB6100g|vitB9100g|vitB12100g|calcium100g|magnesium100g|iron100g|fer100g|betaCarotene100g|presenceHuilePalme"
+            + "|allergenes|additifs";
+    private static final int NB_COLONNES = 30;
+
+    // Syllabes utilisées pour construire des noms distincts et prononçables
+    private static final String[] SYLLABES = {
+            "ba", "be", "bi", "bo", "bu", "ca", "ce", "ci", "co", "cu", "da", "de", "di", "do", "du", "fa", "fe", "fi", "fo",
+            "ga", "go", "gu", "la", "le", "li", "lo", "lu", "ma", "me", "mi", "mo", "mu", "na", "ne", "ni", "no", "pa", "pe",
+            "pi", "po", "ra", "re", "ri", "ro", "ru", "sa", "se", "si", "so", "ta", "te", "ti", "to", "va", "ve", "vi", "vo"};
+    private static final String[] FAMILLES_CATEGORIES = {
+            "Biscuits", "Céréales", "Boissons", "Fromages", "Yaourts", "Chocolats", "Plats préparés", "Conserves", "Confitures",
+            "Charcuteries", "Surgelés", "Sauces", "Pains", "Pâtes", "Snacks salés", "Jus de fruits", "Desserts", "Épicerie"};
+    private static final String[] INGREDIENTS_COURANTS = {
+            "sucre", "farine de blé", "eau", "sel", "huile de palme", "huile de tournesol", "lait écrémé en poudre", "beurre",
+            "amidon de maïs", "sirop de glucose", "œufs", "cacao maigre", "arômes", "émulsifiant : lécithine de soja",
+            "poudre à lever", "lactose", "crème", "levure", "vinaigre", "épices", "noisettes", "fécule de pomme de terre",
+            "acidifiant : acide citrique", "colorant : caramel", "dextrose", "protéines de lait", "gluten de blé", "tomate"};
+    private static final List<String> ALLERGENES = List.of(
+            "gluten", "crustacés", "œufs", "poisson", "arachides", "soja", "lait", "fruits à coque", "céleri", "moutarde",
+            "graines de sésame", "anhydride sulfureux et sulfites", "lupin", "mollusques");
+    private static final String[] SCORES = {"a", "b", "c", "d", "e"};
+    private static final String[] SCORES_INVALIDES = {"", "unknown", "f", "not-applicable", "ab"};
+
+    private final long seed;
+    private final int nbCategories;
+    private final int nbMarques;
+    private final int nbIngredients;
+
+    /**
+     * Constructeur de la classe OffDatasetGenerator, les cardinalités sont calculées à partir du nombre de lignes
+     * @param lignes le nombre de lignes de produits à générer
+     * @param seed la graine du générateur pseudo-aléatoire
+     */
+    public OffDatasetGenerator(long lignes, long seed) {
+        this.seed = seed;
+        this.nbCategories = Math.clamp(2 * (long) Math.sqrt(lignes), 50, 8_000);
+        this.nbMarques = Math.clamp(lignes / 15, 100, 200_000);
+        this.nbIngredients = Math.clamp(lignes / 4, 500, 500_000);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage : OffDatasetGenerator fichier.csv lignes [--seed n]");
+            System.exit(2);
+        }
+        long seed = DEFAULT_SEED;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            }
+        }
+        long lignes = parseLignes(args[1]);
+        long debut = System.nanoTime();
+        new OffDatasetGenerator(lignes, seed).generate(Path.of(args[0]), lignes);
+        System.out.printf("%d lignes générées dans %s en %d ms (%d Mo)%n", lignes, args[0],
+                (System.nanoTime() - debut) / 1_000_000, Files.size(Path.of(args[0])) >> 20);
+    }
+
+    /**
+     * Lit un nombre de lignes, avec les suffixes {@code k} (milliers) et {@code m} (millions)
+     * @param valeur le nombre, par exemple {@code 10k} ou {@code 50m}
+     * @return le nombre de lignes
+     */
+    public static long parseLignes(String valeur) {
+        String texte = valeur.trim().toLowerCase(Locale.ROOT).replace("_", "");
+        long facteur = 1;
+        if (texte.endsWith("k")) {
+            facteur = 1_000;
+        } else if (texte.endsWith("m")) {
+            facteur = 1_000_000;
+        }
+        if (facteur > 1) {
+            texte = texte.substring(0, texte.length() - 1);
+        }
+        return Long.parseLong(texte) * facteur;
+    }
+
+    /**
+     * Génère un fichier dans le dossier temporaire, supprimé à l'arrêt de la JVM
+     * <p>Fichier par défaut des programmes lancés sans fichier CSV : son contenu ne dépend que du nombre de lignes,
+     * avec la graine {@value #DEFAULT_SEED}.</p>
+     * @param lignes le nombre de lignes de produits
+     * @return le chemin du fichier généré
+     * @throws IOException en cas d'erreur d'écriture
+     */
+    public static Path generateTemporaire(long lignes) throws IOException {
+        Path fichier = Files.createTempFile("open-food-facts", ".csv");
+        fichier.toFile().deleteOnExit();
+        new OffDatasetGenerator(lignes, DEFAULT_SEED).generate(fichier, lignes);
+        return fichier;
+    }
+
+    /**
+     * Écrit le fichier, via un fichier temporaire renommé à la fin pour ne jamais laisser un fichier incomplet
+     * @param fichier le fichier à créer ou remplacer
+     * @param lignes le nombre de lignes de produits, en-tête non compris
+     * @throws IOException en cas d'erreur d'écriture
+     */
+    public void generate(Path fichier, long lignes) throws IOException {
+        Path dossier = fichier.toAbsolutePath().getParent();
+        Files.createDirectories(dossier);
+        Path temporaire = Files.createTempFile(dossier, fichier.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temporaire), StandardCharsets.UTF_8), 1 << 20)) {
+                out.write(ENTETE);
+                out.write('\n');
+                SplittableRandom random = new SplittableRandom(seed);
+                long produits = 0;
+                StringBuilder ligne = new StringBuilder(4096);
+                for (long i = 0; i < lignes; i++) {
+                    // Environ 8 % des lignes reprennent un produit déjà écrit, avec un nouveau score et de nouveaux ingrédients
+                    long produit = produits > 0 && random.nextInt(100) < 8 ? random.nextLong(produits) : produits++;
+                    ligne.setLength(0);
+                    writeLigne(ligne, random, produit);
+                    out.append(ligne).append('\n');
+                }
+            }
+            Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaire);
+        }
+    }
+
+    private void writeLigne(StringBuilder ligne, SplittableRandom random, long produit) {
+        // La catégorie, la marque et le nom ne dépendent que du produit : une ligne répétée désigne bien le même produit
+        SplittableRandom identite = new SplittableRandom(seed ^ (produit * 0x9E3779B97F4A7C15L));
+        int categorie = populaire(identite, nbCategories);
+        int marque = populaire(identite, nbMarques);
+        ligne.append(FAMILLES_CATEGORIES[categorie % FAMILLES_CATEGORIES.length]).append(' ').append(mot(categorie)).append('|');
+        ligne.append(capitaliser(mot(marque + 7_919))).append('|');
+        ligne.append(capitaliser(mot(produit + 104_729))).append(' ').append(mot(identite.nextInt(5_000))).append('|');
+
+        int tirage = random.nextInt(1_000);
+        if (tirage < 10) {
+            ligne.append(SCORES_INVALIDES[random.nextInt(SCORES_INVALIDES.length)]);
+        } else {
+            ligne.append(SCORES[random.nextInt(SCORES.length)]);
+        }
+        ligne.append('|');
+
+        boolean guillemets = random.nextInt(1_000) < 2;
+        if (guillemets) {
+            ligne.append('"');
+        }
+        writeIngredients(ligne, random);
+        if (guillemets) {
+            // Champ entre guillemets : le séparateur qu'il contient ne découpe pas la ligne
+            ligne.append(" | traces éventuelles\"");
+        }
+        ligne.append('|');
+
+        // Lignes tronquées : l'import doit les rejeter
+        int colonnes = random.nextInt(1_000) < 5 ? 5 + random.nextInt(NB_COLONNES - 6) : NB_COLONNES;
+        for (int colonne = 5; colonne < colonnes; colonne++) {
+            if (colonne == 28) {
+                writeAllergenes(ligne, random);
+            } else if (colonne == 27) {
+                ligne.append(random.nextInt(4) == 0 ? "1" : "0");
+            } else if (colonne != 29 && random.nextInt(3) > 0) {
+                ligne.append(random.nextInt(100_000) / 100.0);
+            } else if (colonne == 29 && random.nextBoolean()) {
+                ligne.append("E").append(100 + random.nextInt(400));
+            }
+            if (colonne < NB_COLONNES - 1) {
+                ligne.append('|');
+            }
+        }
+    }
+
+    private void writeIngredients(StringBuilder ligne, SplittableRandom random) {
+        // La plupart des listes comptent moins de 25 ingrédients, quelques-unes sont très longues
+        int nombre = random.nextInt(100) < 2 ? 25 + random.nextInt(MAX_INGREDIENTS - 24) : 1 + random.nextInt(25);
+        for (int i = 0; i < nombre; i++) {
+            if (i > 0) {
+                int separateur = random.nextInt(20);
+                ligne.append(separateur == 0 ? " et " : separateur == 1 ? "; " : ", ");
+            }
+            String ingredient = random.nextInt(100) < 40
+                    ? INGREDIENTS_COURANTS[populaire(random, INGREDIENTS_COURANTS.length)]
+                    : mot(populaire(random, nbIngredients) + 1_299_709L);
+            int variante = random.nextInt(50);
+            if (variante == 0) {
+                ligne.append(ingredient.toUpperCase(Locale.ROOT));
+            } else if (variante == 1) {
+                ligne.append('_').append(ingredient).append('_');
+            } else if (variante == 2) {
+                ligne.append(ingredient).append('*');
+            } else if (variante == 3) {
+                ligne.append(capitaliser(ingredient)).append(' ').append(1 + random.nextInt(60)).append('%');
+            } else {
+                ligne.append(ingredient);
+            }
+        }
+    }
+
+    private static void writeAllergenes(StringBuilder ligne, SplittableRandom random) {
+        int nombre = Math.max(0, random.nextInt(7) - 3);
+        for (int i = 0; i < nombre; i++) {
+            if (i > 0) {
+                ligne.append(',');
+            }
+            String allergene = ALLERGENES.get(populaire(random, ALLERGENES.size()));
+            ligne.append(random.nextInt(10) == 0 ? capitaliser(allergene) : allergene);
+        }
+    }
+
+    // Tire un rang entre 0 et n - 1, les premiers rangs étant beaucoup plus fréquents que les derniers
+    private static int populaire(SplittableRandom random, int n) {
+        double u = random.nextDouble();
+        return (int) (n * u * u * u);
+    }
+
+    // Construit un mot distinct pour chaque valeur, à partir des syllabes
+    private static String mot(long valeur) {
+        StringBuilder mot = new StringBuilder();
+        long reste = valeur;
+        do {
+            mot.append(SYLLABES[(int) (reste % SYLLABES.length)]);
+            reste /= SYLLABES.length;
+        } while (reste > 0);
+        return mot.toString();
+    }
+
+    private static String capitaliser(String mot) {
+        return mot.isEmpty() ? mot : Character.toUpperCase(mot.charAt(0)) + mot.substring(1);
+    }
+}
@@ -2,6 +2,9 @@ package fr.yuka_projet;
 
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,25 +12,33 @@ import java.util.List;
  *  Représente le produit alimentaire
  * <p>Cette classe est annotée avec {@code @Entity} pour indiquer qu'il s'agit d'une entité JPA.</p>
  * <p>Elle est également annotée avec {@code @Table(name="produit")} pour spécifier le nom de la table correspondante dans la base de données.</p>
+ * <p>Un produit est identifié par sa clé naturelle (nom, catégorie, marque), garantie par la contrainte unique "uk_produit_nom_cat_marq" :
+ * deux marques peuvent commercialiser un produit du même nom.</p>
+ * <p>Aucune association n'est chargée avec le produit. Les listes d'ingrédients et d'allergènes, comme les listes de produits
+ * des catégories, marques, ingrédients et allergènes, sont annotées {@code @BatchSize(size = 50)} : parcourir les listes
+ * de N entités coûte environ N / 50 requêtes au lieu de N.</p>
  */
 @Entity
-@Table(name="produit")
+@Table(name="produit",
+        uniqueConstraints = @UniqueConstraint(name = "uk_produit_nom_cat_marq", columnNames = {"nom", "id_cat", "id_marq"}))
 public class Produit {
 
     /**
      * L'identifiant unique du produit dans la base de donnée - la clé primaire
      *<p>Ce champ est annoté avec {@code @Id} pour indiquer qu'il s'agit de la clé primaire de l'entité</p>
-     *<p>Il est également annoté avec {@code @GeneratedValue(strategy = GenerationType.IDENTITY)} pour spécifier que la valeur de cet identifiant
-     *est généré automatiquement par la base de données en utilisant une stratégie d'identité</p>
+     *<p>Il est également annoté avec {@code @GeneratedValue(strategy = GenerationType.SEQUENCE)} : les identifiants sont réservés
+     *par blocs de {@code allocationSize} dans la séquence "produit_seq" (une table sous MySQL). Contrairement à la stratégie d'identité,
+     *l'identifiant est connu avant l'insertion, ce qui permet à Hibernate de regrouper les insertions en lots JDBC</p>
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "produit_seq")
+    @SequenceGenerator(name = "produit_seq", sequenceName = "produit_seq", allocationSize = 500)
     private long id;
 
     /**
-     * Nom du produit, taille de châine max 255, non nul et unique
+     * Nom du produit, taille de châine max 255, non nul et unique pour une catégorie et une marque données
      */
-    @Column(name="nom", length = 255, nullable = false, unique = true)
+    @Column(name="nom", length = 255, nullable = false)
     private String nom;
 
     /**
@@ -42,22 +53,32 @@ public class Produit {
     @Column(name="score_nutritionnel", nullable = false)
     private  NutritionGradeFr scoreNutritionnel;
 
+    /**
+     * Masque des allergènes du produit : le bit {@code Allergene.bit} de chacun de ses allergènes
+     * <p>Écrit par l'import en même temps que les lignes de all_pro. Filtrer les produits sans certains allergènes
+     * ne demande alors pas de jointure, voir {@link AllergenMask}.</p>
+     */
+    @Column(name="allergenes_masque", nullable = false)
+    private long allergenesMasque;
+
     /**
      * Champ représentant la relation entre un produit et sa marque.
      * Relation @ManyToOne avec le champ marque indiquant aue plusieurs produits peuvent appartenir à une marque
      * La clé étrangère utilisée pour cette relation est la colonne nommée {@code id_marq} dans la base de données
+     * La marque est chargée à la demande : lire un produit n'entraîne pas de requête sur la table marque
      */
-    @ManyToOne
-    @JoinColumn(name="id_marq")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name="id_marq", foreignKey = @ForeignKey(name = "fk_produit_marque"))
     private Marque marque;
 
     /**
      * Champ représentant la relation entre un produit et sa catégorie
      * Relation @ManyToOne avec le champ catégorie indiquant que plusieurs produits peuvent appartenir à une catégorie
      * La clé étrangère utilisée pour cette relation est la collonne nommée {@code id_cat} dans la base de données
+     * La catégorie est chargée à la demande : lire un produit n'entraîne pas de requête sur la table catégorie
      */
-    @ManyToOne
-    @JoinColumn(name="id_cat")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name="id_cat", foreignKey = @ForeignKey(name = "fk_produit_categorie"))
     private Categorie categorie;
 
     /**
@@ -68,14 +89,18 @@ public class Produit {
      * L'annotation {@code @JoinColumn(name = "produit_id")} définit la clé étrangère dans la table d'association pointant vers l'entité Produit.
      * L'Annotation {@code @InverseJoinColumn(name = "allergen_id")} définit la clé étrangère dans la table d'association
      * pointant vers l'entité Allergene.
-     *
+     * Ce côté est le seul propriétaire de la table "all_pro", {@code Allergene.produits} en est le côté inverse.
+     * Pour savoir si le produit contient un allergène, {@link #getAllergenesMasque()} évite de charger cette liste.
      */
     @ManyToMany
+    @BatchSize(size = 50)
     @JoinTable(name="all_pro",
             joinColumns= @JoinColumn(name="produit_id", referencedColumnName=
                     "id"),
             inverseJoinColumns= @JoinColumn(name="allergen_id", referencedColumnName=
-                    "id")
+                    "id"),
+            foreignKey = @ForeignKey(name = "fk_all_pro_produit"),
+            inverseForeignKey = @ForeignKey(name = "fk_all_pro_allergene")
     )
     List<Allergene> allergenes = new ArrayList<>();
 
@@ -88,13 +113,18 @@ public class Produit {
      * L'annotation {@code @JoinColumn(name = "produit_id")} définit la clé étrangère dans la table d'association pointant vers l'entité Produit.
      * L'Annotation {@code @InverseJoinColumn(name = "ingredient_id")} définit la clé étrangère dans la table d'association
      * pointant vers l'entité Ingrédient.
+     * Ce côté est le seul propriétaire de la table "pro_ing", {@code Ingredient.produits} en est le côté inverse.
+     * L'import écrit cette table directement ({@link AssociationBulkWriter}), sans passer par la liste.
      */
     @ManyToMany
+    @BatchSize(size = 50)
     @JoinTable(name="pro_ing",
             joinColumns= @JoinColumn(name="produit_id", referencedColumnName=
                     "id"),
             inverseJoinColumns= @JoinColumn(name="ingredient_id", referencedColumnName=
-                    "id")
+                    "id"),
+            foreignKey = @ForeignKey(name = "fk_pro_ing_produit"),
+            inverseForeignKey = @ForeignKey(name = "fk_pro_ing_ingredient")
     )
     List<Ingredient> ingredients = new ArrayList<>();
 
@@ -159,6 +189,22 @@ public class Produit {
         this.scoreNutritionnel = scoreNutritionnel;
     }
 
+    /**
+     * Permet de récupérer le masque des allergènes du produit
+     * @return le masque
+     */
+    public long getAllergenesMasque() {
+        return allergenesMasque;
+    }
+
+    /**
+     * Permet de définir le masque des allergènes
+     * @param allergenesMasque le masque, calculé par {@link AllergenMask#ajouter}
+     */
+    public void setAllergenesMasque(long allergenesMasque) {
+        this.allergenesMasque = allergenesMasque;
+    }
+
     /**
      * Permet de récupérer la marque du produit
      * @return
@@ -233,9 +279,15 @@ public class Produit {
                 "id_produit=" + id +
                 ", nom='" + nom + '\'' +
                 ", scoreNutritionnel=" + scoreNutritionnel +
-                ", marque=" + marque +
-                ", categorie=" + categorie +
-                ", allergenes=" + allergenes +
+                ", marque=" + decrire(marque) +
+                ", categorie=" + decrire(categorie) +
                 '}';
     }
+
+    // Décrit une entité liée sans la charger : un proxy pas encore initialisé est réduit à son identifiant,
+    // un produit détaché peut ainsi être affiché sans LazyInitializationException
+    private static String decrire(Object entite) {
+        LazyInitializer proxy = HibernateProxy.extractLazyInitializer(entite);
+        return proxy != null && proxy.isUninitialized() ? "#" + proxy.getInternalIdentifier() : String.valueOf(entite);
+    }
 }
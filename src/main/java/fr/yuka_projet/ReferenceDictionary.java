@@ -0,0 +1,412 @@
+package fr.yuka_projet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.hibernate.Session;
+
+/**
+ * Dictionnaires nom canonique → identifiant des catégories, marques, ingrédients et allergènes, construits avant l'import des produits
+ * <p>{@link #build(EntityManagerFactory, Path, NameNormalizer, int)} est la première passe de l'import en deux passes :
+ * le fichier est lu une fois, ses enregistrements sont analysés en parallèle pour relever les noms canoniques distincts,
+ * puis les noms absents de la base sont insérés en quelques instructions de {@value #LIGNES_PAR_INSTRUCTION} lignes
+ * et les dictionnaires sont chargés. Un nom inséré prend pour nom affiché l'écriture de la première ligne où il apparaît,
+ * comme avec l'import en une passe.</p>
+ * <p>Les identifiants des noms insérés sont relus par la base elle-même, avec la collation de la colonne
+ * {@code nom_canonique} : deux noms que Java distingue mais que la collation confond ("strasse" et "straße"
+ * avec utf8mb4_0900_ai_ci) désignent la même ligne, comme dans l'import en une passe, et sont signalés.
+ * Si un nom reste introuvable ou si des lignes insérées ne sont pas relues, la première passe échoue et rien n'est validé.
+ * Elle échoue de même, avant toute écriture, si un nom dépasse les {@value #LONGUEUR_NOM} caractères des colonnes
+ * {@code nom} et {@code nom_canonique} : tronqué par la base, il se confondrait sans erreur avec un autre nom.</p>
+ * <p>Les allergènes insérés reçoivent leur position dans le masque des produits ({@link AllergenMask}),
+ * attribuée dans l'ordre alphabétique des nouveaux noms pour qu'un même fichier donne toujours les mêmes positions.</p>
+ * <p>Pendant la seconde passe, les moteurs ne lisent que ces dictionnaires, qui ne sont plus modifiés :
+ * aucune écriture dans les tables de référence, et donc aucune attente sur leurs index uniques.</p>
+ */
+public class ReferenceDictionary {
+
+    static final int LIGNES_PAR_INSTRUCTION = 1_000;
+    // Longueur en caractères des colonnes nom et nom_canonique des tables de référence
+    static final int LONGUEUR_NOM = 255;
+    // Noms relus par instruction : chaque nom ajoute une branche UNION ALL à la requête
+    private static final int NOMS_PAR_RECHERCHE = 250;
+    // Enregistrements analysés par tâche
+    private static final int ENREGISTREMENTS_PAR_TACHE = 2_000;
+
+    // Tables de référence, dans l'ordre des entités
+    private static final Map<Class<?>, String> TABLES = new LinkedHashMap<>();
+
+    static {
+        TABLES.put(Categorie.class, "categorie");
+        TABLES.put(Marque.class, "marque");
+        TABLES.put(Ingredient.class, "ingredient");
+        TABLES.put(Allergene.class, "allergene");
+    }
+
+    private final Map<Class<?>, Map<String, Long>> ids;
+    // Position dans le masque, par identifiant d'allergène
+    private final Map<Long, Integer> bitsAllergenes;
+    private final long nomsInseres;
+
+    private ReferenceDictionary(Map<Class<?>, Map<String, Long>> ids, Map<Long, Integer> bitsAllergenes, long nomsInseres) {
+        this.ids = ids;
+        this.bitsAllergenes = bitsAllergenes;
+        this.nomsInseres = nomsInseres;
+    }
+
+    /**
+     * Première passe : relève les noms du fichier, insère ceux qui manquent et charge les dictionnaires
+     * @param dbFactory la fabrique de l'unité de persistance
+     * @param fichier le fichier CSV à importer
+     * @param normalizer le normaliseur utilisé aussi par la seconde passe
+     * @param threads le nombre de threads d'analyse des enregistrements
+     * @return les dictionnaires
+     * @throws IOException en cas d'erreur de lecture du fichier
+     */
+    public static ReferenceDictionary build(EntityManagerFactory dbFactory, Path fichier, NameNormalizer normalizer, int threads)
+            throws IOException {
+        long debut = System.nanoTime();
+        Map<Class<?>, Map<String, Occurrence>> noms = scan(fichier, new LigneProduitParser(normalizer, false), threads);
+        List<String> tropLongs = verifierLongueurs(noms);
+        if (!tropLongs.isEmpty()) {
+            throw new IOException("Première passe annulée : " + String.join(" ; ", tropLongs));
+        }
+
+        Map<Class<?>, Map<String, Long>> ids = new HashMap<>();
+        Map<Long, Integer> bits = new HashMap<>();
+        long[] inseres = new long[1];
+        List<String> anomalies = new ArrayList<>();
+        EntityManager em = dbFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.unwrap(Session.class).doWork(connection -> {
+                for (Map.Entry<Class<?>, String> table : TABLES.entrySet()) {
+                    Map<String, Long> existants = load(connection, table.getValue());
+                    List<NameNormalizer.Nom> manquants = new ArrayList<>();
+                    for (Map.Entry<String, Occurrence> nom : noms.get(table.getKey()).entrySet()) {
+                        if (!existants.containsKey(nom.getKey())) {
+                            manquants.add(new NameNormalizer.Nom(nom.getKey(), nom.getValue().affiche()));
+                        }
+                    }
+                    if (!manquants.isEmpty()) {
+                        long nouveaux = table.getKey() == Allergene.class
+                                ? insertAllergenes(connection, manquants)
+                                : insert(connection, table.getValue(), manquants);
+                        inseres[0] += nouveaux;
+                        existants.putAll(resolve(connection, table.getValue(), manquants, nouveaux, anomalies));
+                    }
+                    ids.put(table.getKey(), Collections.unmodifiableMap(existants));
+                }
+                bits.putAll(loadBits(connection));
+            });
+            if (!anomalies.isEmpty()) {
+                throw new IOException("Première passe annulée : " + String.join(" ; ", anomalies));
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+
+        ReferenceDictionary dictionnaire = new ReferenceDictionary(ids, Collections.unmodifiableMap(bits), inseres[0]);
+        System.out.println("Première passe terminée en " + (System.nanoTime() - debut) / 1_000_000 + " ms : " + dictionnaire);
+        return dictionnaire;
+    }
+
+    /**
+     * Permet d'obtenir l'identifiant d'une entité de référence
+     * @param type la classe de l'entité : {@link Categorie}, {@link Marque}, {@link Ingredient} ou {@link Allergene}
+     * @param nom la forme canonique du nom
+     * @return l'identifiant, ou {@code null} si ce nom n'est pas dans le dictionnaire
+     */
+    public Long id(Class<?> type, String nom) {
+        return ids.get(type).get(nom);
+    }
+
+    /**
+     * Permet d'obtenir la position d'un allergène dans le masque des produits
+     * @param nom le nom canonique de l'allergène
+     * @return la position, ou {@code null} si l'allergène n'en a pas ou n'est pas dans le dictionnaire
+     */
+    public Integer bitAllergene(String nom) {
+        Long id = id(Allergene.class, nom);
+        return id == null ? null : bitsAllergenes.get(id);
+    }
+
+    /**
+     * Permet d'obtenir le nombre de noms d'un dictionnaire
+     * @param type la classe de l'entité
+     * @return le nombre de noms
+     */
+    public int size(Class<?> type) {
+        return ids.get(type).size();
+    }
+
+    /**
+     * Permet d'obtenir le nombre de noms insérés par la première passe
+     * @return le nombre de lignes ajoutées aux tables de référence
+     */
+    public long getNomsInseres() {
+        return nomsInseres;
+    }
+
+    // La lecture reste séquentielle, pour découper correctement les champs sur plusieurs lignes ; l'analyse est parallèle
+    private static Map<Class<?>, Map<String, Occurrence>> scan(Path fichier, LigneProduitParser parser, int threads) throws IOException {
+        Map<Class<?>, Map<String, Occurrence>> noms = new HashMap<>();
+        TABLES.keySet().forEach(type -> noms.put(type, new ConcurrentHashMap<>()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Limite le nombre de paquets lus d'avance
+        Semaphore enAttente = new Semaphore(threads * 2);
+        List<Future<?>> taches = new ArrayList<>();
+        try (CsvRecordReader reader = new CsvRecordReader(fichier, '|')) {
+            // Ignorer la première ligne (les en-têtes)
+            reader.readNext();
+            List<String[]> paquet = new ArrayList<>(ENREGISTREMENTS_PAR_TACHE);
+            long premiereLigne = reader.getLinesRead() + 1;
+            String[] columns;
+            while ((columns = reader.readNext()) != null) {
+                paquet.add(columns);
+                if (paquet.size() == ENREGISTREMENTS_PAR_TACHE) {
+                    taches.add(submit(executor, enAttente, parser, paquet, premiereLigne, noms));
+                    paquet = new ArrayList<>(ENREGISTREMENTS_PAR_TACHE);
+                    premiereLigne = reader.getLinesRead() + 1;
+                }
+            }
+            if (!paquet.isEmpty()) {
+                taches.add(submit(executor, enAttente, parser, paquet, premiereLigne, noms));
+            }
+            for (Future<?> tache : taches) {
+                tache.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Première passe interrompue", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Erreur lors de la première passe", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return noms;
+    }
+
+    private static Future<?> submit(ExecutorService executor, Semaphore enAttente, LigneProduitParser parser,
+                                    List<String[]> paquet, long premiereLigne, Map<Class<?>, Map<String, Occurrence>> noms)
+            throws InterruptedException {
+        enAttente.acquire();
+        return executor.submit(() -> {
+            try {
+                long numero = premiereLigne;
+                for (String[] columns : paquet) {
+                    LigneProduit ligne = parser.parse(numero++, columns);
+                    if (ligne != null) {
+                        relever(noms.get(Categorie.class), ligne.categorie(), ligne.numeroLigne());
+                        relever(noms.get(Marque.class), ligne.marque(), ligne.numeroLigne());
+                        for (NameNormalizer.Nom nom : ligne.ingredients()) {
+                            relever(noms.get(Ingredient.class), nom, ligne.numeroLigne());
+                        }
+                        for (NameNormalizer.Nom nom : ligne.allergenes()) {
+                            relever(noms.get(Allergene.class), nom, ligne.numeroLigne());
+                        }
+                    }
+                }
+            } finally {
+                enAttente.release();
+            }
+        });
+    }
+
+    // Les paquets sont analysés dans le désordre : seule la première ligne du fichier où le nom apparaît garde son écriture
+    private static void relever(Map<String, Occurrence> noms, NameNormalizer.Nom nom, long ligne) {
+        Occurrence occurrence = noms.get(nom.canonique());
+        if (occurrence == null || occurrence.ligne() > ligne) {
+            noms.merge(nom.canonique(), new Occurrence(ligne, nom.affiche()),
+                    (actuelle, nouvelle) -> actuelle.ligne() <= nouvelle.ligne() ? actuelle : nouvelle);
+        }
+    }
+
+    private static Map<String, Long> load(Connection connection, String table) throws SQLException {
+        Map<String, Long> ids = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultats = statement.executeQuery("SELECT id, nom_canonique FROM " + table)) {
+            while (resultats.next()) {
+                ids.put(resultats.getString(2), resultats.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    // Relève, par table, les noms plus longs que leurs colonnes : la base les tronquerait à l'insertion comme à la relecture
+    private static List<String> verifierLongueurs(Map<Class<?>, Map<String, Occurrence>> noms) {
+        List<String> anomalies = new ArrayList<>();
+        for (Map.Entry<Class<?>, String> table : TABLES.entrySet()) {
+            long nombre = 0;
+            List<String> exemples = new ArrayList<>();
+            for (Map.Entry<String, Occurrence> nom : noms.get(table.getKey()).entrySet()) {
+                String affiche = nom.getValue().affiche();
+                if (longueur(nom.getKey()) > LONGUEUR_NOM || longueur(affiche) > LONGUEUR_NOM) {
+                    nombre++;
+                    if (exemples.size() < 5) {
+                        exemples.add("ligne " + nom.getValue().ligne() + " : " + affiche.substring(0, Math.min(40, affiche.length())) + "…");
+                    }
+                }
+            }
+            if (nombre > 0) {
+                anomalies.add(nombre + " noms de plus de " + LONGUEUR_NOM + " caractères pour " + table.getValue()
+                        + ", par exemple " + exemples);
+            }
+        }
+        return anomalies;
+    }
+
+    // Longueur comptée comme MySQL, en caractères et non en unités UTF-16
+    private static int longueur(String nom) {
+        return nom.codePointCount(0, nom.length());
+    }
+
+    // Relit l'identifiant de chaque nom manquant en comparant les noms dans la base, avec la collation de la colonne :
+    // le nom envoyé revient avec la ligne qu'il désigne, qu'elle vienne d'être insérée ou non
+    private static Map<String, Long> resolve(Connection connection, String table, List<NameNormalizer.Nom> manquants,
+                                             long inseres, List<String> anomalies) throws SQLException {
+        Map<String, Long> ids = new HashMap<>();
+        List<String> confondus = new ArrayList<>();
+        long exacts = 0;
+        for (int debut = 0; debut < manquants.size(); debut += NOMS_PAR_RECHERCHE) {
+            List<NameNormalizer.Nom> lot = manquants.subList(debut, Math.min(manquants.size(), debut + NOMS_PAR_RECHERCHE));
+            // Lecture verrouillante : elle voit aussi un nom validé entre-temps par un autre import
+            String sql = "SELECT v.nom, t.id, t.nom_canonique FROM (SELECT CAST(? AS CHAR(255)) AS nom"
+                    + " UNION ALL SELECT ?".repeat(lot.size() - 1) + ") v JOIN " + table + " t ON t.nom_canonique = v.nom FOR UPDATE";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < lot.size(); i++) {
+                    statement.setString(i + 1, lot.get(i).canonique());
+                }
+                try (ResultSet resultats = statement.executeQuery()) {
+                    while (resultats.next()) {
+                        String nom = resultats.getString(1);
+                        ids.put(nom, resultats.getLong(2));
+                        if (nom.equals(resultats.getString(3))) {
+                            exacts++;
+                        } else if (confondus.size() < 5) {
+                            confondus.add(nom + " = " + resultats.getString(3));
+                        }
+                    }
+                }
+            }
+        }
+        if (ids.size() < manquants.size()) {
+            List<String> introuvables = new ArrayList<>();
+            for (NameNormalizer.Nom nom : manquants) {
+                if (!ids.containsKey(nom.canonique()) && introuvables.size() < 5) {
+                    introuvables.add(nom.canonique());
+                }
+            }
+            anomalies.add((manquants.size() - ids.size()) + " noms introuvables dans " + table + " après insertion, par exemple " + introuvables);
+        }
+        if (exacts < inseres) {
+            anomalies.add(inseres + " lignes insérées dans " + table + " mais seulement " + exacts + " relues");
+        }
+        if (ids.size() > exacts) {
+            System.out.println("Première passe : " + (ids.size() - exacts) + " noms confondus par la collation de " + table
+                    + " avec un autre nom, par exemple " + confondus);
+        }
+        return ids;
+    }
+
+    private static Map<Long, Integer> loadBits(Connection connection) throws SQLException {
+        Map<Long, Integer> bits = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultats = statement.executeQuery("SELECT id, bit_masque FROM allergene WHERE bit_masque IS NOT NULL")) {
+            while (resultats.next()) {
+                bits.put(resultats.getLong(1), resultats.getInt(2));
+            }
+        }
+        return bits;
+    }
+
+    // Les nouveaux allergènes sont insérés avec leur position dans le masque, attribuée à la suite des positions existantes
+    private static long insertAllergenes(Connection connection, List<NameNormalizer.Nom> noms) throws SQLException {
+        Integer plusGrandBit;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultats = statement.executeQuery("SELECT MAX(bit_masque) FROM allergene")) {
+            resultats.next();
+            plusGrandBit = resultats.getObject(1, Integer.class);
+        }
+        List<NameNormalizer.Nom> tries = new ArrayList<>(noms);
+        tries.sort(Comparator.comparing(NameNormalizer.Nom::canonique));
+        long inseres = 0;
+        for (int debut = 0; debut < tries.size(); debut += LIGNES_PAR_INSTRUCTION) {
+            List<NameNormalizer.Nom> lot = tries.subList(debut, Math.min(tries.size(), debut + LIGNES_PAR_INSTRUCTION));
+            String sql = "INSERT IGNORE INTO allergene (nom, nom_canonique, bit_masque) VALUES "
+                    + "(?,?,?),".repeat(lot.size() - 1) + "(?,?,?)";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < lot.size(); i++) {
+                    Integer bit = AllergenMask.attribuer(lot.get(i).canonique(), plusGrandBit);
+                    if (bit != null && (plusGrandBit == null || bit > plusGrandBit)) {
+                        plusGrandBit = bit;
+                    }
+                    statement.setString(i * 3 + 1, lot.get(i).affiche());
+                    statement.setString(i * 3 + 2, lot.get(i).canonique());
+                    statement.setObject(i * 3 + 3, bit, Types.INTEGER);
+                }
+                inseres += statement.executeUpdate();
+            }
+        }
+        return inseres;
+    }
+
+    // INSERT IGNORE : un nom inséré entre-temps par un autre import, ou confondu par la collation avec un nom existant,
+    // n'interrompt pas la première passe ; resolve retrouve sa ligne
+    private static long insert(Connection connection, String table, List<NameNormalizer.Nom> noms) throws SQLException {
+        long inseres = 0;
+        for (int debut = 0; debut < noms.size(); debut += LIGNES_PAR_INSTRUCTION) {
+            List<NameNormalizer.Nom> lot = noms.subList(debut, Math.min(noms.size(), debut + LIGNES_PAR_INSTRUCTION));
+            StringBuilder sql = new StringBuilder("INSERT IGNORE INTO ").append(table).append(" (nom, nom_canonique) VALUES ");
+            for (int i = 0; i < lot.size(); i++) {
+                sql.append(i == 0 ? "(?,?)" : ",(?,?)");
+            }
+            try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < lot.size(); i++) {
+                    statement.setString(i * 2 + 1, lot.get(i).affiche());
+                    statement.setString(i * 2 + 2, lot.get(i).canonique());
+                }
+                inseres += statement.executeUpdate();
+            }
+        }
+        return inseres;
+    }
+
+    // Première ligne du fichier où apparaît un nom canonique, avec son écriture sur cette ligne
+    private record Occurrence(long ligne, String affiche) {
+    }
+
+    /**
+     * Retourne un résumé des dictionnaires
+     * @return le nombre de noms de chaque dictionnaire
+     */
+    @Override
+    public String toString() {
+        return size(Categorie.class) + " catégories, " + size(Marque.class) + " marques, " + size(Ingredient.class)
+                + " ingrédients, " + size(Allergene.class) + " allergènes, dont " + nomsInseres + " nouveaux noms";
+    }
+}
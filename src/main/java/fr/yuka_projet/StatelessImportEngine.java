@@ -0,0 +1,144 @@
+package fr.yuka_projet;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Moteur d'import basé sur la {@code StatelessSession} Hibernate
+ * <p>Aucun contexte de persistance : pas de cache de premier niveau, pas d'instantané ni de vérification des modifications
+ * à la validation. Les produits sont insérés par lots JDBC et les associations sont écrites explicitement
+ * par l'{@link AssociationBulkWriter}.</p>
+ */
+public class StatelessImportEngine extends AbstractImportEngine {
+
+    private final SessionFactory sessionFactory;
+    private StatelessSession session;
+    private int jdbcBatchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Constructeur de la classe StatelessImportEngine
+     * @param sessionFactory la fabrique de sessions Hibernate
+     */
+    public StatelessImportEngine(SessionFactory sessionFactory) {
+        super(sessionFactory, DEFAULT_BATCH_SIZE);
+        this.sessionFactory = sessionFactory;
+        openSession();
+    }
+
+    private void openSession() {
+        session = sessionFactory.openStatelessSession();
+        session.setJdbcBatchSize(jdbcBatchSize);
+    }
+
+    @Override
+    public void begin() {
+        session.beginTransaction();
+    }
+
+    @Override
+    public ImportCheckpoint findCheckpoint(String empreinte) {
+        return session.get(ImportCheckpoint.class, empreinte);
+    }
+
+    @Override
+    public void checkpoint(ImportCheckpoint checkpoint) {
+        session.upsert(checkpoint);
+    }
+
+    @Override
+    protected <T> T findReference(Class<T> type, String nomCanonique) {
+        return session.createQuery("SELECT e FROM " + type.getSimpleName() + " e WHERE e.nomCanonique = :nom", type)
+                .setParameter("nom", nomCanonique)
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Override
+    protected <T> T reference(Class<T> type, long id) {
+        // Pas de proxy sans contexte de persistance : l'entité est lue, une fois par nom grâce au cache du moteur
+        return session.get(type, id);
+    }
+
+    @Override
+    protected void insertReference(Object entite) {
+        session.insert(entite);
+    }
+
+    @Override
+    protected ProduitExistant findProduit(CleProduit cle) {
+        // Les mises à jour sont exécutées immédiatement : le score lu est celui de la transaction courante
+        return session.createQuery(
+                        "SELECT p.id, p.scoreNutritionnel, p.allergenesMasque FROM Produit p "
+                                + "WHERE p.nom = :nom AND p.categorie.id = :categorie AND p.marque.id = :marque",
+                        Object[].class)
+                .setParameter("nom", cle.nom())
+                .setParameter("categorie", cle.categorieId())
+                .setParameter("marque", cle.marqueId())
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst()
+                .map(produit -> new ProduitExistant((Long) produit[0], (NutritionGradeFr) produit[1], (Long) produit[2]))
+                .orElse(null);
+    }
+
+    @Override
+    protected Integer plusGrandBitAllergene() {
+        return session.createQuery("SELECT MAX(a.bit) FROM Allergene a", Integer.class).getSingleResult();
+    }
+
+    @Override
+    protected long insertProduit(Produit produit) {
+        return (Long) session.insert(produit);
+    }
+
+    @Override
+    protected void updateProduit(long id, NutritionGradeFr scoreNutritionnel, long allergenesMasque) {
+        session.createMutationQuery("UPDATE Produit p SET p.scoreNutritionnel = :score, p.allergenesMasque = :masque WHERE p.id = :id")
+                .setParameter("score", scoreNutritionnel)
+                .setParameter("masque", allergenesMasque)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    @Override
+    protected void flushProduits() {
+        // La StatelessSession n'expose pas de flush : le lot JDBC en attente est exécuté directement
+        ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+    }
+
+    @Override
+    protected void applyJdbcBatchSize(int batchSize) {
+        jdbcBatchSize = batchSize;
+        session.setJdbcBatchSize(batchSize);
+    }
+
+    @Override
+    protected void doWork(Work work) {
+        session.doWork(work);
+    }
+
+    @Override
+    protected void commitTransaction() {
+        session.getTransaction().commit();
+    }
+
+    @Override
+    protected void rollbackTransaction() {
+        if (session.getTransaction().isActive()) {
+            session.getTransaction().rollback();
+        }
+        // Le lot JDBC en attente appartient à la transaction annulée : la session est remplacée
+        // pour qu'il ne soit pas exécuté dans la suivante
+        session.close();
+        openSession();
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+}